@@ -0,0 +1,356 @@
+package dk.mmj.fhe;
+
+import dk.mmj.matrix.BufferMatrix;
+import dk.mmj.matrix.Gadget;
+import dk.mmj.matrix.Matrix;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Store of ciphertexts in a memory-mapped file, with one fixed-size slot per ciphertext
+ * <br/>
+ * Every slot holds the (n+1) x columns entries of a ciphertext as unsigned 64-bit little-endian words, in row-major
+ * order, so q must fit in words. {@link #get(int)} returns a ciphertext whose matrix is a {@link BufferMatrix} over
+ * the mapped slot, such that the gates of {@link LWE} read their operands directly from the file, without
+ * deserialising them. Results are written back to free slots with {@link #put(LWECiphertext)}.
+ * <br/>
+ * The file starts with a header holding the gadget and the capacity, followed by a bitmap of the occupied slots, and
+ * the slots. The bitmap lives in the file as well, such that a store can be reopened with {@link #open(Path)}.
+ * A ciphertext read from a slot sees later writes to that slot, so a slot should not be freed while the ciphertext
+ * read from it is still in use.
+ */
+public class CiphertextStore implements AutoCloseable {
+    private static final int MAGIC = 0x4C574553;//"LWES"
+    private static final int VERSION = 1;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    private final FileChannel channel;
+    private final Gadget gadget;
+    private final int capacity;
+    private final int stride;
+    private final int slotsPerRegion;
+    /**
+     * The header and the bitmap of occupied slots, where slot <i>i</i> is bit <code>i mod 64</code> of word
+     * <code>i/64</code>
+     */
+    private final MappedByteBuffer meta;
+    private final LongBuffer occupied;
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private int size;
+    /**
+     * No slot below this one is free
+     */
+    private int firstFree;
+
+    private CiphertextStore(FileChannel channel, Gadget gadget, int capacity, boolean created) throws IOException {
+        this.channel = channel;
+        this.gadget = gadget;
+        this.capacity = capacity;
+        this.stride = (int) strideOf(gadget);
+
+        int headerLength = headerLength(gadget);
+        int bitmapLength = bitmapLength(capacity);
+        this.meta = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerLength + bitmapLength);
+        meta.order(ORDER);
+        if (created) {
+            writeHeader(meta, gadget, capacity);
+        }
+        ByteBuffer bitmap = meta.duplicate();
+        bitmap.position(headerLength);
+        this.occupied = bitmap.slice().order(ORDER).asLongBuffer();
+
+        //A single mapping is limited to 2GB, so the slots are split over as many mappings as needed
+        this.slotsPerRegion = Math.max(1, Integer.MAX_VALUE / stride);
+        long position = headerLength + bitmapLength;
+        for (int first = 0; first < capacity; first += slotsPerRegion) {
+            long length = (long) Math.min(slotsPerRegion, capacity - first) * stride;
+            regions.add(channel.map(FileChannel.MapMode.READ_WRITE, position, length));
+            position += length;
+        }
+
+        for (int slot = 0; slot < capacity; slot++) {
+            if (isOccupied(slot)) {
+                size++;
+            }
+        }
+        firstFree = nextFree(0);
+    }
+
+    /**
+     * Creates a new store
+     *
+     * @param file     the file to create - must not exist
+     * @param gadget   gadget of the key the stored ciphertexts are encrypted under
+     * @param capacity number of slots
+     * @return the store, with all slots free
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public static CiphertextStore create(Path file, Gadget gadget, int capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, was " + capacity);
+        }
+        if (!Matrix.fitsInWords(gadget.getQ())) {
+            throw new IllegalArgumentException("Entries mod q=" + gadget.getQ() + " do not fit in words");
+        }
+        if (strideOf(gadget) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Ciphertexts with " + gadget.getRows() + " rows do not fit in a slot");
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new CiphertextStore(channel, gadget, capacity, true);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing store
+     *
+     * @param file the file of the store
+     * @return the store, with the slots occupied when it was last closed
+     * @throws IOException              if the file cannot be read or mapped
+     * @throws IllegalArgumentException if the file is not a ciphertext store, or its length does not match its header
+     */
+    public static CiphertextStore open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(channel.size(), Short.MAX_VALUE)).order(ORDER);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < 2 * Integer.BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IllegalArgumentException("File " + file + " is not a ciphertext store of version " +
+                        VERSION);
+            }
+            if (header.remaining() < 2 * Integer.BYTES + Short.BYTES) {
+                throw new IllegalArgumentException("Truncated header in " + file);
+            }
+            int capacity = header.getInt();
+            int rows = header.getInt();
+            int qLength = header.getShort();
+            if (capacity < 1 || rows < 1 || qLength < 1 || qLength + 2 > header.remaining()) {
+                throw new IllegalArgumentException("Malformed header in " + file + ", with capacity " + capacity +
+                        ", " + rows + " rows and q of " + qLength + " bytes");
+            }
+            byte[] q = new byte[qLength];
+            header.get(q);
+            BigInteger modulus = new BigInteger(1, q);
+            if (!Matrix.fitsInWords(modulus)) {
+                throw new IllegalArgumentException("Entries mod q=" + modulus + " in " + file +
+                        " do not fit in words");
+            }
+            Gadget gadget = new Gadget(rows, modulus, header.get(), header.get());
+
+            long stride = strideOf(gadget);
+            long expected = headerLength(gadget) + bitmapLength(capacity) + capacity * stride;
+            if (stride > Integer.MAX_VALUE || channel.size() != expected) {
+                throw new IllegalArgumentException("File " + file + " has " + channel.size() +
+                        " bytes, but its header describes " + capacity + " slots of " + stride + " bytes");
+            }
+            return new CiphertextStore(channel, gadget, capacity, false);
+        } catch (ArithmeticException e) {
+            channel.close();
+            throw new IllegalArgumentException("Malformed header in " + file, e);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param gadget the gadget
+     * @return number of bytes in a slot
+     */
+    private static long strideOf(Gadget gadget) {
+        return (long) gadget.getRows() * gadget.getColumns() * Long.BYTES;
+    }
+
+    /**
+     * @param capacity number of slots
+     * @return number of bytes in the bitmap of occupied slots
+     */
+    private static int bitmapLength(int capacity) {
+        return (int) (((long) capacity + Long.SIZE - 1) / Long.SIZE * Long.BYTES);
+    }
+
+    /**
+     * @param gadget the gadget
+     * @return number of bytes in the header, rounded up to a whole word
+     */
+    private static int headerLength(Gadget gadget) {
+        int length = 4 * Integer.BYTES + Short.BYTES + gadget.getQ().toByteArray().length + 2;
+        return (length + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+    }
+
+    private static void writeHeader(ByteBuffer out, Gadget gadget, int capacity) {
+        byte[] q = gadget.getQ().toByteArray();
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(capacity);
+        out.putInt(gadget.getRows());
+        out.putShort((short) q.length);
+        out.put(q);
+        out.put((byte) gadget.getBaseBits());
+        out.put((byte) gadget.getDroppedDigits());
+    }
+
+    /**
+     * @return gadget of the key the stored ciphertexts are encrypted under
+     */
+    public Gadget getGadget() {
+        return gadget;
+    }
+
+    /**
+     * @return number of slots
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of occupied slots
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param slot index of the slot
+     * @return whether the slot holds a ciphertext
+     */
+    public synchronized boolean isOccupied(int slot) {
+        checkSlot(slot);
+        return (occupied.get(slot >>> 6) >>> slot & 1) != 0;
+    }
+
+    /**
+     * @param slot index of an occupied slot
+     * @return the ciphertext in the slot, as a view of the mapped file
+     */
+    public LWECiphertext get(int slot) {
+        if (!isOccupied(slot)) {
+            throw new IllegalArgumentException("Slot " + slot + " is free");
+        }
+        LongBuffer entries = slotBuffer(slot).asLongBuffer();
+        return new LWECiphertext(new BufferMatrix(gadget.getRows(), gadget.getColumns(), entries, gadget.getQ()));
+    }
+
+    /**
+     * Writes a ciphertext to the lowest free slot
+     *
+     * @param c ciphertext encrypted under a key with the gadget of the store
+     * @return index of the slot written
+     */
+    public synchronized int put(LWECiphertext c) {
+        if (size == capacity) {
+            throw new IllegalStateException("All " + capacity + " slots are occupied");
+        }
+        int slot = firstFree;
+        set(slot, c);
+        return slot;
+    }
+
+    /**
+     * Writes a ciphertext to a slot, replacing the ciphertext it may hold
+     *
+     * @param slot index of the slot
+     * @param c    ciphertext encrypted under a key with the gadget of the store
+     */
+    public synchronized void set(int slot, LWECiphertext c) {
+        checkSlot(slot);
+        Matrix matrix = c.getC();
+        if (matrix.getRows() != gadget.getRows() || matrix.getColumns() != gadget.getColumns()) {
+            throw new IllegalArgumentException("Ciphertext with dimensions " + matrix.getRows() + "x" +
+                    matrix.getColumns() + " does not match the store");
+        }
+        slotBuffer(slot).asLongBuffer().put(matrix.toWords(gadget.getQ()));
+
+        if (!isOccupied(slot)) {
+            occupied.put(slot >>> 6, occupied.get(slot >>> 6) | 1L << slot);
+            size++;
+            if (slot == firstFree) {
+                firstFree = nextFree(slot + 1);
+            }
+        }
+    }
+
+    /**
+     * Frees a slot, such that it may be written by a later {@link #put(LWECiphertext)}
+     *
+     * @param slot index of the slot
+     */
+    public synchronized void free(int slot) {
+        if (isOccupied(slot)) {
+            occupied.put(slot >>> 6, occupied.get(slot >>> 6) & ~(1L << slot));
+            size--;
+            firstFree = Math.min(firstFree, slot);
+        }
+    }
+
+    /**
+     * @param from first slot to consider
+     * @return the lowest free slot from <i>from</i>, or the capacity if there is none
+     */
+    private int nextFree(int from) {
+        for (int word = from >>> 6; word < occupied.limit(); word++) {
+            long free = ~occupied.get(word);
+            if (word == from >>> 6) {
+                free &= -1L << from;
+            }
+            if (free != 0) {
+                return Math.min(capacity, word * Long.SIZE + Long.numberOfTrailingZeros(free));
+            }
+        }
+        return capacity;
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= capacity) {
+            throw new IllegalArgumentException("Slot " + slot + " is outside store with " + capacity + " slots");
+        }
+    }
+
+    /**
+     * @param slot index of the slot
+     * @return the bytes of the slot, as a buffer of its own
+     */
+    private ByteBuffer slotBuffer(int slot) {
+        ByteBuffer region = regions.get(slot / slotsPerRegion).duplicate();
+        int position = slot % slotsPerRegion * stride;
+        region.position(position);
+        region.limit(position + stride);
+        return region.slice().order(ORDER);
+    }
+
+    /**
+     * Writes the mapped slots and bitmap to the file
+     */
+    public synchronized void flush() {
+        meta.force();
+        for (MappedByteBuffer region : regions) {
+            region.force();
+        }
+    }
+
+    /**
+     * Flushes and closes the file. The mappings are released once no ciphertext read from the store is in use.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
@@ -0,0 +1,306 @@
+package dk.mmj.fhe;
+
+import dk.mmj.fhe.interfaces.Ciphertext;
+import dk.mmj.matrix.Gadget;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encrypts streams of plaintext bytes to streams of serialised ciphertexts, and back
+ * <br/>
+ * Every plaintext byte is encrypted as eight ciphertexts, least significant bit first, each serialised with
+ * {@link LWEWireFormat}. The stream is processed in chunks of a fixed number of plaintext bytes: the calling thread
+ * reads the chunks and writes the results, while a pool of worker threads encrypts or decrypts them, such that I/O
+ * overlaps with computation. At most two chunks per worker are in flight at once, which bounds the memory used,
+ * regardless of the length of the stream. The results are written in the order the chunks were read.
+ * <br/>
+ * The number of plaintext bytes processed, and the time spent on it, are accumulated over every call, and reported
+ * as a throughput by {@link #getThroughput()}.
+ */
+public class CiphertextStreamer implements AutoCloseable {
+    /**
+     * Number of plaintext bytes in a chunk, if not given
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 64;
+    private final LWE lwe;
+    private final int chunkBytes;
+    private final int maxInFlight;
+    private final ExecutorService workers;
+    private final AtomicLong plaintextBytes = new AtomicLong();
+    private final AtomicLong elapsedNanos = new AtomicLong();
+
+    /**
+     * @param lwe     the system to encrypt and decrypt with
+     * @param threads number of worker threads
+     */
+    public CiphertextStreamer(LWE lwe, int threads) {
+        this(lwe, threads, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param lwe        the system to encrypt and decrypt with
+     * @param threads    number of worker threads
+     * @param chunkBytes number of plaintext bytes processed by a worker at a time
+     */
+    public CiphertextStreamer(LWE lwe, int threads, int chunkBytes) {
+        if (threads < 1 || chunkBytes < 1) {
+            throw new IllegalArgumentException("Number of threads and chunk size must be positive, was threads=" +
+                    threads + ", chunkBytes=" + chunkBytes);
+        }
+        this.lwe = lwe;
+        this.chunkBytes = chunkBytes;
+        this.maxInFlight = 2 * threads;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ciphertext-stream-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Encrypts every byte of a stream, until its end
+     *
+     * @param in  the plaintext bytes
+     * @param key the key to encrypt under
+     * @param out receiver of the serialised ciphertexts
+     * @return number of plaintext bytes encrypted
+     * @throws IOException if reading or writing fails
+     */
+    public long encrypt(InputStream in, LWEPublicKey key, WritableByteChannel out) throws IOException {
+        long start = System.nanoTime();
+        int ciphertextLength = LWEWireFormat.ciphertextLength(key.getGadget());
+        Queue<Future<ByteBuffer>> pending = new ArrayDeque<>();
+        long total = 0;
+        try {
+            while (true) {
+                byte[] chunk = new byte[chunkBytes];
+                int read = readFully(in, chunk);
+                if (read == 0) {
+                    break;
+                }
+                total += read;
+
+                byte[] bytes = read == chunkBytes ? chunk : Arrays.copyOf(chunk, read);
+                pending.add(workers.submit(() -> encryptChunk(bytes, key, ciphertextLength)));
+                if (pending.size() >= maxInFlight) {
+                    writeFully(out, await(pending.remove()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeFully(out, await(pending.remove()));
+            }
+        } catch (IOException | RuntimeException e) {
+            drain(pending, e);
+            throw e;
+        }
+
+        record(total, start);
+        return total;
+    }
+
+    /**
+     * Decrypts every ciphertext of a stream, as written by
+     * {@link #encrypt(InputStream, LWEPublicKey, WritableByteChannel)}, until its end
+     *
+     * @param in  the serialised ciphertexts
+     * @param key the key to decrypt with
+     * @param out receiver of the plaintext bytes
+     * @return number of plaintext bytes decrypted
+     * @throws IOException if reading or writing fails, or the stream ends within a plaintext byte
+     */
+    public long decrypt(ReadableByteChannel in, LWESecretKey key, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        int ciphertextLength = LWEWireFormat.ciphertextLength(key.getGadget());
+        int byteLength = Byte.SIZE * ciphertextLength;
+        Queue<Future<byte[]>> pending = new ArrayDeque<>();
+        long total = 0;
+        try {
+            while (true) {
+                ByteBuffer chunk = ByteBuffer.allocate(chunkBytes * byteLength);
+                int read = readFully(in, chunk);
+                if (read == 0) {
+                    break;
+                }
+                if (read % byteLength != 0) {
+                    throw new EOFException("Stream of ciphertexts ended within a plaintext byte");
+                }
+                total += read / byteLength;
+
+                chunk.flip();
+                pending.add(workers.submit(() -> decryptChunk(chunk, ciphertextLength, key)));
+                if (pending.size() >= maxInFlight) {
+                    out.write(await(pending.remove()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.write(await(pending.remove()));
+            }
+        } catch (IOException | RuntimeException e) {
+            drain(pending, e);
+            throw e;
+        }
+        out.flush();
+
+        record(total, start);
+        return total;
+    }
+
+    private ByteBuffer encryptChunk(byte[] bytes, LWEPublicKey key, int ciphertextLength) {
+        boolean[] bits = new boolean[bytes.length * Byte.SIZE];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = (bytes[i / Byte.SIZE] >>> (i % Byte.SIZE) & 1) != 0;
+        }
+
+        Gadget gadget = key.getGadget();
+        ByteBuffer res = ByteBuffer.allocate(bits.length * ciphertextLength);
+        for (Ciphertext c : lwe.encrypt(bits, key)) {
+            LWEWireFormat.encode((LWECiphertext) c, gadget, res);
+        }
+        res.flip();
+        return res;
+    }
+
+    private byte[] decryptChunk(ByteBuffer chunk, int ciphertextLength, LWESecretKey key) {
+        Ciphertext[] cs = new Ciphertext[chunk.remaining() / ciphertextLength];
+        for (int i = 0; i < cs.length; i++) {
+            cs[i] = LWEWireFormat.decodeCiphertext(chunk);
+        }
+        boolean[] bits = lwe.decrypt(cs, key);
+
+        byte[] res = new byte[bits.length / Byte.SIZE];
+        for (int i = 0; i < bits.length; i++) {
+            if (bits[i]) {
+                res[i / Byte.SIZE] |= 1 << (i % Byte.SIZE);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return number of bytes read, which is less than the length of the buffer only at the end of the stream
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int count = in.read(buffer, read, buffer.length - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        return read;
+    }
+
+    /**
+     * @return number of bytes read, which is less than the space in the buffer only at the end of the stream
+     */
+    private static int readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            int count = in.read(buffer);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        return read;
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * @return the result of a chunk, once the worker has computed it
+     */
+    private static <T> T await(Future<T> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a chunk");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Unable to process chunk", e.getCause());
+        }
+    }
+
+    /**
+     * Waits for the chunks still in flight after a failure, such that no worker is busy once the failure is reported.
+     * Failures of those chunks are added to the reported failure. If interrupted, the chunks are cancelled instead.
+     *
+     * @param pending chunks in flight
+     * @param failure the failure to report
+     */
+    private static void drain(Queue<? extends Future<?>> pending, Exception failure) {
+        for (Future<?> result : pending) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.forEach(chunk -> chunk.cancel(true));
+                break;
+            } catch (ExecutionException e) {
+                failure.addSuppressed(e.getCause());
+            }
+        }
+        pending.clear();
+    }
+
+    private void record(long bytes, long start) {
+        plaintextBytes.addAndGet(bytes);
+        elapsedNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * @return number of plaintext bytes encrypted or decrypted
+     */
+    public long getPlaintextBytes() {
+        return plaintextBytes.get();
+    }
+
+    /**
+     * @return time spent encrypting and decrypting streams, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos.get();
+    }
+
+    /**
+     * @return plaintext bytes processed per second, in MB/s (10^6 bytes), or 0 if nothing has been processed
+     */
+    public double getThroughput() {
+        long nanos = elapsedNanos.get();
+        return nanos == 0 ? 0 : plaintextBytes.get() * 1e3 / nanos;
+    }
+
+    /**
+     * Stops the worker threads. Streams can no longer be processed afterwards.
+     */
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,145 @@
+package dk.mmj.fhe;
+
+import dk.mmj.matrix.Gadget;
+import dk.mmj.matrix.Matrix;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static java.math.BigInteger.ZERO;
+import static java.math.BigInteger.valueOf;
+
+/**
+ * Values for decrypting with an {@link LWESecretKey}, derived once from the key
+ * <br/>
+ * Decryption only reads the most significant column for each row of G. The context holds the indices of those
+ * columns, the entries of s*G in them, and s reduced mod q, stored as primitive words when q allows it.
+ * Decrypting a ciphertext is then a single product of s with the selected columns of C.
+ */
+class DecryptionContext {
+    private final Matrix s;
+    private final BigInteger q;
+    private final Gadget gadget;
+    private final int[] columns;
+    private final BigInteger[] sG;
+    private final BigInteger digits;
+    /**
+     * s with its entries as integers in (-q/2, q/2], for reducing them to the modulus of a switched ciphertext
+     */
+    private final BigInteger[] centredS;
+
+    /**
+     * @param s      the secret vector
+     * @param q      q used in LWE system
+     * @param gadget the gadget matrix used with the key
+     */
+    DecryptionContext(Matrix s, BigInteger q, Gadget gadget) {
+        this.s = s.reduce(q);
+        this.q = q;
+        this.gadget = gadget;
+        this.columns = IntStream.range(0, gadget.getRows()).map(gadget::mostSignificantColumn).toArray();
+        //G has only the most significant entry of g in these columns, so s*G is s[i] * 2^(logQ-1) in column i
+        BigInteger mostSignificantEntry = gadget.mostSignificantEntry();
+        this.sG = IntStream.range(0, gadget.getRows())
+                .mapToObj(i -> this.s.get(0, i).multiply(mostSignificantEntry).mod(q))
+                .toArray(BigInteger[]::new);
+        this.digits = valueOf(gadget.getDigits());
+        BigInteger half = q.shiftRight(1);
+        this.centredS = IntStream.range(0, gadget.getRows())
+                .mapToObj(i -> this.s.get(0, i))
+                .map(v -> v.compareTo(half) > 0 ? v.subtract(q) : v)
+                .toArray(BigInteger[]::new);
+    }
+
+    /**
+     * @param c the ciphertext matrix
+     * @return the decrypted value
+     */
+    boolean decrypt(Matrix c) {
+        return decide(s.multiplyColumns(c, columns, q), 0, sG, q);
+    }
+
+    /**
+     * Decrypts a ciphertext switched to a smaller modulus q', with s reduced mod q'
+     * <br/>
+     * The entries of s*G are switched along with the ciphertext, to round(s[i] * 2^(logQ-1) * q'/q) mod q'
+     *
+     * @param c the switched ciphertext
+     * @return the decrypted value
+     */
+    boolean decrypt(LWESwitchedCiphertext c) {
+        Gadget switchedGadget = c.getGadget();
+        if (!switchedGadget.getQ().equals(q) || switchedGadget.getRows() != gadget.getRows() ||
+                switchedGadget.getBaseBits() != gadget.getBaseBits() ||
+                switchedGadget.getDroppedDigits() != gadget.getDroppedDigits()) {
+            throw new RuntimeException("Switched ciphertext must be from the parameters of the key");
+        }
+        BigInteger modulus = c.getModulus();
+        Matrix switchedS = Matrix.fromEntries(1, centredS.length, Arrays.stream(centredS)
+                .map(v -> v.mod(modulus))
+                .toArray(BigInteger[]::new)).reduce(modulus);
+        BigInteger twoQ = q.shiftLeft(1);
+        BigInteger[] switchedSG = Arrays.stream(sG)
+                .map(v -> v.multiply(modulus).shiftLeft(1).add(q).divide(twoQ).mod(modulus))
+                .toArray(BigInteger[]::new);
+
+        return decide(switchedS.multiplyColumns(c.getC(), c.decryptionColumns(), modulus), 0, switchedSG, modulus);
+    }
+
+    /**
+     * Decrypts all ciphertexts with a single product s * [C1|C2|...], over the selected columns of every ciphertext
+     *
+     * @param cs the ciphertext matrices
+     * @return the decrypted values, in the order of the ciphertexts
+     */
+    boolean[] decrypt(Matrix[] cs) {
+        if (cs.length == 0) {
+            return new boolean[0];
+        }
+        Matrix sC = s.multiply(Matrix.selectColumns(cs, columns, q), q);
+
+        boolean[] res = new boolean[cs.length];
+        IntStream.range(0, cs.length).parallel().forEach(i -> res[i] = decide(sC, i * columns.length, sG, q));
+        return res;
+    }
+
+    /**
+     * @param sC     secret key * ciphertexts, in the most significant column for each row of G
+     * @param offset column in sC where the entries of the ciphertext start
+     * @param sG     s*G in the most significant column for each row of G
+     * @param q      the modulus of sC
+     * @return the decrypted value
+     */
+    private boolean decide(Matrix sC, int offset, BigInteger[] sG, BigInteger q) {
+        BigInteger trueNoise = calculateNoiseFromAssumption(sC, offset, true, sG, q);
+        BigInteger falseNoise = calculateNoiseFromAssumption(sC, offset, false, sG, q);
+
+        return falseNoise.compareTo(trueNoise) >= 0;
+    }
+
+    /**
+     * Calculates the noise in the ciphertext, based on the assumption that C = ENC(assumption)
+     *
+     * @param sC         secret key * ciphertexts, in the most significant column for each row of G
+     * @param offset     column in sC where the entries of the ciphertext start
+     * @param assumption assumed encrypted value
+     * @param sG         s*G in the most significant column for each row of G
+     * @param q          the modulus of sC
+     * @return the average noise
+     */
+    private BigInteger calculateNoiseFromAssumption(Matrix sC, int offset, boolean assumption, BigInteger[] sG,
+                                                    BigInteger q) {
+        BigInteger sum = ZERO;
+        for (int i = 0; i < columns.length; i++) {
+            BigInteger leftBitValue = sC.get(0, offset + i);
+            BigInteger zeroHBitValue = assumption ? sG[i] : ZERO;
+
+            sum = sum.add(leftBitValue.subtract(zeroHBitValue).mod(q).min(
+                    zeroHBitValue.subtract(leftBitValue).mod(q)
+            ));
+        }
+
+        return sum.divide(digits);
+    }
+}
@@ -0,0 +1,132 @@
+package dk.mmj.fhe;
+
+import dk.mmj.fhe.interfaces.Ciphertext;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.math.BigInteger.ONE;
+
+/**
+ * Pool of encryptions of zero, precomputed on background threads, for low-latency encryption under a single key
+ * <br/>
+ * An encryption A*R + x*G is dominated by A*R, which does not depend on x. Background threads keep a bounded queue
+ * filled with encryptions of zero, A*R, and {@link #encrypt(boolean)} only adds x*G to one taken from the queue.
+ * Every pooled encryption is handed out once. When the queue is empty, the encryption is computed on the calling
+ * thread instead, and counted as a miss.
+ * <br/>
+ * If a background encryption fails, the failure is kept, and rethrown by {@link #encrypt(boolean)} once the
+ * encryptions pooled before it are used up.
+ */
+public class EncryptionPool implements AutoCloseable {
+    private final LWE lwe;
+    private final LWEPublicKey key;
+    private final BlockingQueue<LWECiphertext> pool;
+    private final ExecutorService workers;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    /**
+     * Creates the pool, and starts filling it
+     *
+     * @param lwe     the system to encrypt with
+     * @param key     the key to encrypt under
+     * @param depth   maximum number of pooled encryptions
+     * @param threads number of background threads filling the pool
+     */
+    public EncryptionPool(LWE lwe, LWEPublicKey key, int depth, int threads) {
+        if (depth < 1 || threads < 1) {
+            throw new IllegalArgumentException("Depth and number of threads must be positive, was depth=" + depth +
+                    ", threads=" + threads);
+        }
+        this.lwe = lwe;
+        this.key = key;
+        this.pool = new ArrayBlockingQueue<>(depth);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "encryption-pool-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::fill);
+        }
+    }
+
+    /**
+     * Keeps adding encryptions of zero to the pool, until interrupted or an encryption fails
+     */
+    private void fill() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                pool.put((LWECiphertext) lwe.encrypt(false, key));
+            }
+        } catch (InterruptedException ignored) {
+            //The pool is closed
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * @param x the bit to be encrypted
+     * @return encryption of x under the key of the pool
+     */
+    public Ciphertext encrypt(boolean x) {
+        LWECiphertext zero = pool.poll();
+        if (zero == null) {
+            RuntimeException cause = failure.get();
+            if (cause != null) {
+                throw new IllegalStateException("Background encryption failed", cause);
+            }
+            misses.incrementAndGet();
+            return lwe.encrypt(x, key);
+        }
+
+        hits.incrementAndGet();
+        return x ? new LWECiphertext(key.getGadget().addTo(zero.getC(), ONE)) : zero;
+    }
+
+    /**
+     * @return number of encryptions served from the pool
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of encryptions computed on the calling thread, as the pool was empty
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the failure of a background encryption, or null if none has failed
+     */
+    public RuntimeException getFailure() {
+        return failure.get();
+    }
+
+    /**
+     * @return number of encryptions currently in the pool
+     */
+    public int getAvailable() {
+        return pool.size();
+    }
+
+    /**
+     * Stops the background threads. Encryption still works, but every call is a miss once the pool is drained.
+     */
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+}
@@ -5,15 +5,18 @@ import dk.mmj.fhe.interfaces.Ciphertext;
 import dk.mmj.fhe.interfaces.FHE;
 import dk.mmj.fhe.interfaces.PublicKey;
 import dk.mmj.fhe.interfaces.SecretKey;
-import dk.mmj.matrix.LWEUtils;
+import dk.mmj.matrix.BitMatrix;
+import dk.mmj.matrix.Gadget;
 import dk.mmj.matrix.Matrix;
+import dk.mmj.sampling.CounterModeGenerator;
+import dk.mmj.sampling.GaussianSampler;
+import dk.mmj.sampling.UniformSampler;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
-import java.util.Optional;
+import java.util.Arrays;
 import java.util.stream.IntStream;
 
-import static dk.mmj.matrix.LWEUtils.logQ;
 import static java.math.BigInteger.*;
 
 /**
@@ -24,32 +27,7 @@ import static java.math.BigInteger.*;
  */
 public class LWE implements FHE<LWEParameters> {
     private final SecureRandom rand = new SecureRandom();
-    private double alpha;
-
-    /**
-     * @param q BigInteger q deciding size
-     * @return next gaussian random int with width = alpha*q
-     */
-    private BigInteger nextGaussian(BigInteger q) {
-        if(q.bitCount() > 63){
-            throw new UnsupportedOperationException("Unable to create gaussian distribution with q exceeding size of the Long datatype");
-        }
-
-        double gaussian = rand.nextGaussian();
-
-        double v = gaussian * (alpha * q.longValue());
-
-        long vRounded = v > 0 ? ((long) (v + .5d)) : ((long) (v - .5d));
-        return BigInteger.valueOf(vRounded).mod(q);
-    }
-
-    /**
-     * @param q BigInteger q deciding size
-     * @return next uniform random int mod q
-     */
-    private BigInteger nextUniform(BigInteger q) {
-        return new BigInteger(q.bitLength(), rand).mod(q);
-    }
+    private final UniformSampler sampler = new UniformSampler(rand);
 
     /**
      * For general documentation see {@link FHE}
@@ -58,46 +36,81 @@ public class LWE implements FHE<LWEParameters> {
      * @return keypair
      */
     public KeyPair generateKey(LWEParameters parameters) {
-        this.alpha = parameters.getAlpha();
         BigInteger q = parameters.getQ();
+        GaussianSampler gaussian = new GaussianSampler(sampler, parameters.getAlpha() * q.doubleValue());
         int n = parameters.getN();
         int m = parameters.getM();
 
-        Matrix bigB = new Matrix(n, m, this::nextUniform, q);
+        //An approximate gadget leaves an error which is multiplied by the secret, which must therefore be small
+        Matrix t = parameters.getDroppedDigits() > 0 || parameters.isSmallSecret()
+                ? new Matrix(1, n, gaussian, q)
+                : new Matrix(1, n, sampler, q);
 
-        Matrix t = new Matrix(1, n, this::nextUniform, q);
+        Matrix e = new Matrix(1, m, gaussian, q);
 
-        Matrix e = new Matrix(1, m, this::nextGaussian, q);
+        Matrix minusT = t.negate(q).addColumn(new BigInteger[]{ONE});
+        Gadget gadget = new Gadget(n + 1, q, parameters.getBaseBits(), parameters.getDroppedDigits());
+        LWESecretKey secretKey = new LWESecretKey(minusT, q, gadget);
 
+        if (parameters.isSeededPublicKey()) {
+            SeededMatrix bigB = new SeededMatrix(CounterModeGenerator.newSeed(rand), n, m, q);
+            Matrix b = bigB.leftMultiply(t).add(e, q);
+            return new KeyPair(secretKey, new LWEPublicKey(bigB, b, q, gadget));
+        }
+
+        Matrix bigB = new Matrix(n, m, sampler, q);
         Matrix b = t.multiply(bigB, q).add(e, q);
 
-        Matrix minusT = t.negate(q).addColumn(new BigInteger[]{ONE});
         Matrix bigA = bigB.addRow(b.asVector());
         return new KeyPair(
-                new LWESecretKey(minusT, q),
-                new LWEPublicKey(bigA, q)
+                secretKey,
+                new LWEPublicKey(bigA, q, gadget)
         );
     }
 
     public Ciphertext encrypt(boolean x, PublicKey publicKey) {
         LWEPublicKey key = assertOwnKey(publicKey);
 
-        Matrix a = key.getKey();
-        BigInteger q = key.getQ();
-        int n = a.getRows();
-
-        Matrix bigG = LWEUtils.createG(n, q);
-        Matrix r = new Matrix(a.getColumns(), bigG.getColumns(), this::nextUniform, BigInteger.valueOf(2));
+        Gadget gadget = key.getGadget();
+        Matrix r = new BitMatrix(key.getColumns(), gadget.getColumns(), sampler);
 
-        Matrix multiply = a.multiply(r, q);
+        Matrix multiply = key.multiply(r);
 
-        Matrix c = multiply.add(bigG.multiply(x ? ONE : ZERO, q), q);
+        Matrix c = gadget.addTo(multiply, x ? ONE : ZERO);
 
         return new LWECiphertext(c);
     }
 
+    /**
+     * Encrypts all bits with a single wide product A * [R1|R2|...|Rk], where the random bits are drawn 64 at a time
+     * <br/>
+     * For general documentation see {@link FHE}
+     */
+    @Override
+    public Ciphertext[] encrypt(boolean[] xs, PublicKey publicKey) {
+        LWEPublicKey key = assertOwnKey(publicKey);
+        if (xs.length == 0) {
+            return new Ciphertext[0];
+        }
+
+        Gadget gadget = key.getGadget();
+        int width = gadget.getColumns();
+        Matrix r = new BitMatrix(key.getColumns(), xs.length * width, sampler);
+
+        Matrix multiply = key.multiply(r);
+
+        BigInteger q = key.getQ();
+        Ciphertext[] res = new Ciphertext[xs.length];
+        IntStream.range(0, xs.length).parallel().forEach(i -> {
+            //Either branch copies the slice once, so a ciphertext does not keep the whole product alive
+            Matrix slice = multiply.columnRange(i * width, (i + 1) * width);
+            res[i] = new LWECiphertext(xs[i] ? gadget.addTo(slice, ONE) : slice.reduce(q));
+        });
+        return res;
+    }
+
     public boolean decrypt(Ciphertext c, SecretKey secretKey) {
-        if (!(c instanceof LWECiphertext)) {
+        if (!(c instanceof LWECiphertext) && !(c instanceof LWESwitchedCiphertext)) {
             throw new RuntimeException("Ciphertext must be for LWE system!");
         }
 
@@ -106,49 +119,38 @@ public class LWE implements FHE<LWEParameters> {
         }
         final LWESecretKey sk = (LWESecretKey) secretKey;
 
-        Matrix cMatrix = ((LWECiphertext) c).getC();
-        final Matrix s = sk.getS();
-
-        final BigInteger q = sk.getQ();
-        final Matrix sC = s.multiply(cMatrix, q);
-
-        final Matrix bigG = LWEUtils.createG(s.getColumns(), q);
-        final Matrix sG = s.multiply(bigG, q);
+        if (c instanceof LWESwitchedCiphertext) {
+            return sk.getDecryptionContext().decrypt((LWESwitchedCiphertext) c);
+        }
 
-        BigInteger trueNoise = calculateNoiseFromAssumption(sC, sG, true, q);
-        BigInteger falseNoise = calculateNoiseFromAssumption(sC, sG, false, q);
+        Matrix cMatrix = ((LWECiphertext) c).getC();
 
-        return falseNoise.compareTo(trueNoise) >= 0;
+        return sk.getDecryptionContext().decrypt(cMatrix);
     }
 
     /**
-     * Calculates the noise in the ciphertext, based on the assumption that C = ENC(assumption)
-     *
-     * @param sC         secret key * ciphertext
-     * @param sG         secret key * G
-     * @param assumption assumed encrypted value
-     * @param q          modulus
-     * @return the average noise
+     * Decrypts all ciphertexts with a single product of the secret key and the needed columns of every ciphertext
+     * <br/>
+     * For general documentation see {@link FHE}
      */
-    private BigInteger calculateNoiseFromAssumption(Matrix sC, Matrix sG, boolean assumption, BigInteger q) {
-        int logQ = logQ(q);
-
-        Matrix xsG = sG.multiply(assumption ? ONE : ZERO, q);
+    @Override
+    public boolean[] decrypt(Ciphertext[] cs, SecretKey secretKey) {
+        if (!(secretKey instanceof LWESecretKey)) {
+            throw new RuntimeException("Key must be for LWE system");
+        }
+        final LWESecretKey sk = (LWESecretKey) secretKey;
 
-        Optional<BigInteger> reduce = IntStream.range(0, sC.getColumns()).parallel()
-                .filter(i -> i % (logQ) == 0)//Only read one for each g in G
-                .map(i -> i + logQ - 1)//read the index corresponding to the most significant bit
-                .mapToObj(idx -> {//Calculates noise on index 'idx'
-                    BigInteger leftBitValue = sC.get(0, idx);
-                    BigInteger zeroHBitValue = xsG.get(0, idx);
+        //Switched ciphertexts have moduli of their own, so they are decrypted one at a time
+        if (Arrays.stream(cs).anyMatch(c -> c instanceof LWESwitchedCiphertext)) {
+            return FHE.super.decrypt(cs, secretKey);
+        }
 
-                    return leftBitValue.subtract(zeroHBitValue).mod(q).min(
-                            zeroHBitValue.subtract(leftBitValue).mod(q)
-                    );
-                })
-                .reduce(BigInteger::add);
+        Matrix[] cMatrices = new Matrix[cs.length];
+        for (int i = 0; i < cs.length; i++) {
+            cMatrices[i] = assertOwnCiphertext(cs[i]).getC();
+        }
 
-        return reduce.map(bigInteger -> bigInteger.divide(valueOf(logQ))).orElse(null);
+        return sk.getDecryptionContext().decrypt(cMatrices);
     }
 
     @Override
@@ -156,10 +158,7 @@ public class LWE implements FHE<LWEParameters> {
         LWEPublicKey key = assertOwnKey(pk);
         Matrix c1M = assertOwnCiphertext(c).getC();
 
-        BigInteger q = key.getQ();
-
-        Matrix bigG = LWEUtils.createG(c1M.getRows(), q);
-        Matrix cRes = bigG.subtract(c1M, q);
+        Matrix cRes = key.getGadget().subtract(c1M);
         return new LWECiphertext(cRes);
     }
 
@@ -174,10 +173,7 @@ public class LWE implements FHE<LWEParameters> {
         Matrix c1M = assertOwnCiphertext(c1).getC();
         Matrix c2M = assertOwnCiphertext(c2).getC();
 
-        BigInteger q = key.getQ();
-
-        Matrix gInverse = LWEUtils.calculateGInverse(c2M, q);
-        Matrix res = c1M.multiply(gInverse, q);
+        Matrix res = key.getGadget().multiplyInverse(c1M, c2M);
         return new LWECiphertext(res);
     }
 
@@ -1,8 +1,12 @@
 package dk.mmj.fhe;
 
 import dk.mmj.fhe.interfaces.Ciphertext;
+import dk.mmj.matrix.Gadget;
 import dk.mmj.matrix.Matrix;
 
+import java.math.BigInteger;
+import java.util.stream.IntStream;
+
 /**
  * Implementation of a ciphertext for LWE
  */
@@ -19,4 +23,62 @@ public class LWECiphertext implements Ciphertext {
     public Matrix getC() {
         return c;
     }
+
+    /**
+     * Switches the ciphertext to a smaller modulus q', by scaling every entry by q'/q and rounding
+     * <br/>
+     * With s*C = e + x*s*G mod q, the switched ciphertext has s*C' = (q'/q)*(e + x*s*G) + s*r mod q', where every
+     * entry of r is the rounding error of at most 1/2. The switched ciphertext therefore only decrypts if the secret
+     * key is small, as it is with {@link LWEParameters#setSmallSecret(boolean)}, and the noise shrinks along with q.
+     * <br/>
+     * The result can not be used as input to the gates, but is cheaper to transfer and decrypt. Keeping only the
+     * columns read on decryption shrinks it further, by a factor of the number of gadget digits.
+     *
+     * @param gadget                the gadget of the key the ciphertext is encrypted under
+     * @param modulus               q', between 2 and q
+     * @param decryptionColumnsOnly whether to keep only the most significant column for each row of G
+     * @return the switched ciphertext
+     */
+    public LWESwitchedCiphertext switchModulus(Gadget gadget, BigInteger modulus, boolean decryptionColumnsOnly) {
+        BigInteger q = gadget.getQ();
+        if (modulus.compareTo(BigInteger.valueOf(2)) < 0 || modulus.compareTo(q) > 0) {
+            throw new IllegalArgumentException("Modulus must be between 2 and q=" + q + ", was " + modulus);
+        }
+        if (c.getRows() != gadget.getRows() || c.getColumns() != gadget.getColumns()) {
+            throw new IllegalArgumentException("Ciphertext with dimensions " + c.getRows() + "x" + c.getColumns() +
+                    " does not match the gadget");
+        }
+
+        Matrix source = c;
+        if (decryptionColumnsOnly) {
+            int[] columns = IntStream.range(0, gadget.getRows()).map(gadget::mostSignificantColumn).toArray();
+            source = Matrix.selectColumns(new Matrix[]{c}, columns, q);
+        }
+        int rows = source.getRows();
+        int columns = source.getColumns();
+
+        if (q.bitCount() == 1 && modulus.bitCount() == 1 && Matrix.fitsInWords(q)) {
+            //Scaling by a power of two is a rounding shift, and q' <= q fits in words as well
+            int shift = q.bitLength() - modulus.bitLength();
+            long mask = modulus.bitLength() > Long.SIZE ? -1L : (1L << modulus.bitLength() - 1) - 1;
+            long[] words = source.toWords(q);
+            for (int i = 0; i < words.length && shift > 0; i++) {
+                words[i] = ((words[i] >>> (shift - 1)) + 1 >>> 1) & mask;
+            }
+            return new LWESwitchedCiphertext(Matrix.fromWords(rows, columns, words, modulus), modulus, gadget,
+                    decryptionColumnsOnly);
+        }
+
+        //round(v * q'/q) = floor((2 * v * q' + q) / 2q)
+        BigInteger twoQ = q.shiftLeft(1);
+        BigInteger[] entries = new BigInteger[rows * columns];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                BigInteger v = source.get(row, col).mod(q);
+                entries[row * columns + col] = v.multiply(modulus).shiftLeft(1).add(q).divide(twoQ).mod(modulus);
+            }
+        }
+        return new LWESwitchedCiphertext(Matrix.fromEntries(rows, columns, entries).reduce(modulus), modulus, gadget,
+                decryptionColumnsOnly);
+    }
 }
@@ -10,6 +10,10 @@ public class LWEParameters implements FHE.Parameters {
     private int m = n;
     private BigInteger q = BigInteger.valueOf(1<<21);
     private double alpha = 0.000001;
+    private int baseBits = 1;
+    private int droppedDigits = 0;
+    private boolean seededPublicKey = false;
+    private boolean smallSecret = false;
 
     public LWEParameters() {
     }
@@ -49,4 +53,65 @@ public class LWEParameters implements FHE.Parameters {
         this.alpha = alpha;
         return this;
     }
+
+    int getBaseBits() {
+        return baseBits;
+    }
+
+    /**
+     * @param baseBits k, such that the gadget decomposes values in base B = 2^k.
+     *                 As the most significant digit 2^(logQ-1) is always kept on its own, ciphertexts are then
+     *                 ceil((logQ-1)/k)+1 times wider than the key, instead of logQ times
+     * @return this
+     */
+    public LWEParameters setBaseBits(int baseBits) {
+        this.baseBits = baseBits;
+        return this;
+    }
+
+    int getDroppedDigits() {
+        return droppedDigits;
+    }
+
+    /**
+     * @param droppedDigits l, the number of low-order gadget digits to leave out, making the gadget approximate.
+     *                      Ciphertexts are then l columns narrower per row of the key.
+     *                      When l is positive, the secret key is sampled from the error distribution rather than
+     *                      uniformly, as the approximation error is multiplied by the secret key on decryption
+     * @return this
+     */
+    public LWEParameters setDroppedDigits(int droppedDigits) {
+        this.droppedDigits = droppedDigits;
+        return this;
+    }
+
+    boolean isSeededPublicKey() {
+        return seededPublicKey;
+    }
+
+    /**
+     * @param seededPublicKey whether the uniform part B of the public key is represented by a random seed,
+     *                        instead of being held in memory. B is then expanded from the seed, a row at a time,
+     *                        whenever it is multiplied
+     * @return this
+     */
+    public LWEParameters setSeededPublicKey(boolean seededPublicKey) {
+        this.seededPublicKey = seededPublicKey;
+        return this;
+    }
+
+    boolean isSmallSecret() {
+        return smallSecret;
+    }
+
+    /**
+     * @param smallSecret whether the secret key is sampled from the error distribution rather than uniformly.
+     *                    This is needed for ciphertexts switched to a smaller modulus to decrypt, as the rounding
+     *                    error of switching is multiplied by the secret key
+     * @return this
+     */
+    public LWEParameters setSmallSecret(boolean smallSecret) {
+        this.smallSecret = smallSecret;
+        return this;
+    }
 }
@@ -1,24 +1,116 @@
 package dk.mmj.fhe;
 
 import dk.mmj.fhe.interfaces.PublicKey;
+import dk.mmj.matrix.Gadget;
 import dk.mmj.matrix.Matrix;
 
 import java.math.BigInteger;
 
+/**
+ * Public key A = [B; tB + e] for the LWE system
+ * <br/>
+ * The key is either held as the full matrix A, or as the seed that B is expanded from along with the last row
+ * b = tB + e, in which case the key takes up kilobytes regardless of the dimensions of B.
+ */
 public class LWEPublicKey implements PublicKey {
     private final Matrix key;
+    private final SeededMatrix bigB;
+    private final Matrix b;
     private final BigInteger q;
+    private final Gadget gadget;
 
     public LWEPublicKey(Matrix key, BigInteger q) {
+        this(key, q, new Gadget(key.getRows(), q));
+    }
+
+    /**
+     * @param key    the key matrix
+     * @param q      q used in LWE system
+     * @param gadget the gadget matrix used with the key
+     */
+    public LWEPublicKey(Matrix key, BigInteger q, Gadget gadget) {
         this.key = key;
+        this.bigB = null;
+        this.b = null;
+        this.q = q;
+        this.gadget = gadget;
+    }
+
+    /**
+     * @param seed   the seed which B is expanded from
+     * @param b      the last row of the key, b = tB + e
+     * @param q      q used in LWE system
+     * @param gadget the gadget matrix used with the key
+     */
+    public LWEPublicKey(byte[] seed, Matrix b, BigInteger q, Gadget gadget) {
+        this(new SeededMatrix(seed, gadget.getRows() - 1, b.getColumns(), q), b, q, gadget);
+    }
+
+    LWEPublicKey(SeededMatrix bigB, Matrix b, BigInteger q, Gadget gadget) {
+        this.key = null;
+        this.bigB = bigB;
+        this.b = b;
         this.q = q;
+        this.gadget = gadget;
     }
 
+    /**
+     * For a seeded key the matrix is expanded on every call, which is as expensive as it is for a full key to
+     * hold it. Use {@link #isSeeded()} to tell the two apart.
+     *
+     * @return the key matrix A
+     */
     public Matrix getKey() {
-        return key;
+        if (key != null) {
+            return key;
+        }
+        return Matrix.stackRows(new Matrix[]{bigB.toMatrix(), b}, q);
+    }
+
+    /**
+     * @return whether the key is represented by a seed
+     */
+    public boolean isSeeded() {
+        return bigB != null;
+    }
+
+    /**
+     * @return the seed which B is expanded from, or null if the key is held in full
+     */
+    public byte[] getSeed() {
+        return bigB != null ? bigB.getSeed() : null;
     }
 
     public BigInteger getQ() {
         return q;
     }
+
+    public Gadget getGadget() {
+        return gadget;
+    }
+
+    /**
+     * @return the last row b = tB + e of a seeded key, or null if the key is held in full
+     */
+    Matrix getLastRow() {
+        return b;
+    }
+
+    /**
+     * @return number of columns in A
+     */
+    int getColumns() {
+        return key != null ? key.getColumns() : b.getColumns();
+    }
+
+    /**
+     * @param r matrix with as many rows as A has columns
+     * @return A * R mod q, where a seeded key is expanded a row at a time
+     */
+    Matrix multiply(Matrix r) {
+        if (key != null) {
+            return key.multiply(r, q);
+        }
+        return Matrix.stackRows(new Matrix[]{bigB.multiply(r), b.multiply(r, q)}, q);
+    }
 }
@@ -1,6 +1,7 @@
 package dk.mmj.fhe;
 
 import dk.mmj.fhe.interfaces.SecretKey;
+import dk.mmj.matrix.Gadget;
 import dk.mmj.matrix.Matrix;
 
 import java.math.BigInteger;
@@ -10,10 +11,23 @@ public class LWESecretKey implements SecretKey {
 
     private final Matrix s;
     private final BigInteger q;
+    private final Gadget gadget;
+    private final DecryptionContext decryptionContext;
 
     public LWESecretKey(Matrix s, BigInteger q) {
+        this(s, q, new Gadget(s.getColumns(), q));
+    }
+
+    /**
+     * @param s      the secret vector
+     * @param q      q used in LWE system
+     * @param gadget the gadget matrix used with the key
+     */
+    public LWESecretKey(Matrix s, BigInteger q, Gadget gadget) {
         this.s = s;
         this.q = q;
+        this.gadget = gadget;
+        this.decryptionContext = new DecryptionContext(s, q, gadget);
     }
 
     public Matrix getS() {
@@ -24,6 +38,14 @@ public class LWESecretKey implements SecretKey {
         return q;
     }
 
+    public Gadget getGadget() {
+        return gadget;
+    }
+
+    DecryptionContext getDecryptionContext() {
+        return decryptionContext;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
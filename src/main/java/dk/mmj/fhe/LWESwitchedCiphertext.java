@@ -0,0 +1,64 @@
+package dk.mmj.fhe;
+
+import dk.mmj.fhe.interfaces.Ciphertext;
+import dk.mmj.matrix.Gadget;
+import dk.mmj.matrix.Matrix;
+
+import java.math.BigInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Ciphertext for LWE, switched to a smaller modulus by {@link LWECiphertext#switchModulus(Gadget, BigInteger, boolean)}
+ * <br/>
+ * A switched ciphertext can only be decrypted, not used as input to the gates. It may hold only the most significant
+ * column for each row of G, as those are the only columns read on decryption.
+ */
+public class LWESwitchedCiphertext implements Ciphertext {
+    private final Matrix c;
+    private final BigInteger modulus;
+    private final Gadget gadget;
+    private final boolean decryptionColumnsOnly;
+
+    /**
+     * @param c                     the ciphertext matrix, mod <i>modulus</i>
+     * @param modulus               the modulus switched to
+     * @param gadget                the gadget of the key the ciphertext was encrypted under, before switching
+     * @param decryptionColumnsOnly whether c holds only the most significant column for each row of G, or all of them
+     */
+    public LWESwitchedCiphertext(Matrix c, BigInteger modulus, Gadget gadget, boolean decryptionColumnsOnly) {
+        int columns = decryptionColumnsOnly ? gadget.getRows() : gadget.getColumns();
+        if (c.getRows() != gadget.getRows() || c.getColumns() != columns) {
+            throw new IllegalArgumentException("Ciphertext with dimensions " + c.getRows() + "x" + c.getColumns() +
+                    " does not match the gadget");
+        }
+        this.c = c;
+        this.modulus = modulus;
+        this.gadget = gadget;
+        this.decryptionColumnsOnly = decryptionColumnsOnly;
+    }
+
+    public Matrix getC() {
+        return c;
+    }
+
+    public BigInteger getModulus() {
+        return modulus;
+    }
+
+    public Gadget getGadget() {
+        return gadget;
+    }
+
+    public boolean isDecryptionColumnsOnly() {
+        return decryptionColumnsOnly;
+    }
+
+    /**
+     * @return the columns of c holding the most significant column for each row of G
+     */
+    int[] decryptionColumns() {
+        return decryptionColumnsOnly
+                ? IntStream.range(0, gadget.getRows()).toArray()
+                : IntStream.range(0, gadget.getRows()).map(gadget::mostSignificantColumn).toArray();
+    }
+}
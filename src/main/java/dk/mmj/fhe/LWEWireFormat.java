@@ -0,0 +1,502 @@
+package dk.mmj.fhe;
+
+import dk.mmj.matrix.Gadget;
+import dk.mmj.matrix.Matrix;
+import dk.mmj.sampling.CounterModeGenerator;
+
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.Function;
+
+/**
+ * Versioned binary format for ciphertexts and keys of the LWE system
+ * <br/>
+ * Every encoding starts with a header: the magic bytes "LWE", the version, the type of the content, and the
+ * parameters of the gadget - its number of rows n+1, q, the base bits and the dropped digits. The content follows,
+ * with every entry mod q bit-packed into exactly <code>bitLength(q-1)</code> bits, which is logQ bits for a power
+ * of two q. The packed entries are in row-major order, least significant bit first, and padded to a whole byte.
+ * <br/>
+ * Header fields are big-endian, the packed entries little-endian. Encoding and decoding work directly against a
+ * {@link ByteBuffer}, starting at its position, and leave the position after the encoding.
+ */
+public final class LWEWireFormat {
+    /**
+     * Current version of the format
+     */
+    public static final int VERSION = 1;
+    private static final int MAGIC = 0x4C574500;//"LWE" followed by the version
+    private static final byte CIPHERTEXT = 1;
+    private static final byte PUBLIC_KEY = 2;
+    private static final byte SEEDED_PUBLIC_KEY = 3;
+    private static final byte SECRET_KEY = 4;
+    private static final byte SWITCHED_CIPHERTEXT = 5;
+
+    private LWEWireFormat() {
+    }
+
+    /**
+     * @param c      the ciphertext
+     * @param gadget the gadget of the key the ciphertext is encrypted under
+     * @return number of bytes in the encoding
+     */
+    public static int encodedLength(LWECiphertext c, Gadget gadget) {
+        checkDimensions(c, gadget);
+        return ciphertextLength(gadget);
+    }
+
+    /**
+     * As every ciphertext under a gadget has the same dimensions, they all have the same length when encoded
+     *
+     * @param gadget the gadget of the key the ciphertexts are encrypted under
+     * @return number of bytes in the encoding of any ciphertext under the gadget
+     */
+    public static int ciphertextLength(Gadget gadget) {
+        return checkedLength(headerLength(gadget) +
+                packedLength(gadget.getRows(), gadget.getColumns(), gadget.getQ()));
+    }
+
+    /**
+     * @param pk the public key
+     * @return number of bytes in the encoding
+     */
+    public static int encodedLength(LWEPublicKey pk) {
+        Gadget gadget = pk.getGadget();
+        int columns = pk.getColumns();
+        if (pk.isSeeded()) {
+            return checkedLength(headerLength(gadget) + Integer.BYTES + CounterModeGenerator.SEED_BYTES +
+                    packedLength(1, columns, gadget.getQ()));
+        }
+        return checkedLength(headerLength(gadget) + Integer.BYTES +
+                packedLength(gadget.getRows(), columns, gadget.getQ()));
+    }
+
+    /**
+     * @param sk the secret key
+     * @return number of bytes in the encoding
+     */
+    public static int encodedLength(LWESecretKey sk) {
+        Gadget gadget = sk.getGadget();
+        return checkedLength(headerLength(gadget) + packedLength(1, gadget.getRows(), gadget.getQ()));
+    }
+
+    /**
+     * @param c      the ciphertext
+     * @param gadget the gadget of the key the ciphertext is encrypted under
+     * @param out    buffer with room for {@link #encodedLength(LWECiphertext, Gadget)} bytes
+     */
+    public static void encode(LWECiphertext c, Gadget gadget, ByteBuffer out) {
+        checkDimensions(c, gadget);
+        writeHeader(out, CIPHERTEXT, gadget);
+        writeEntries(out, c.getC(), gadget.getQ());
+    }
+
+    private static void checkDimensions(LWECiphertext c, Gadget gadget) {
+        Matrix matrix = c.getC();
+        if (matrix.getRows() != gadget.getRows() || matrix.getColumns() != gadget.getColumns()) {
+            throw new IllegalArgumentException("Ciphertext with dimensions " + matrix.getRows() + "x" +
+                    matrix.getColumns() + " does not match the gadget");
+        }
+    }
+
+    /**
+     * @param in buffer positioned at an encoded ciphertext
+     * @return the ciphertext
+     */
+    public static LWECiphertext decodeCiphertext(ByteBuffer in) {
+        return decode(in, "ciphertext", buffer -> {
+            Gadget gadget = readHeader(buffer, CIPHERTEXT);
+            return new LWECiphertext(readEntries(buffer, gadget.getRows(), gadget.getColumns(), gadget.getQ()));
+        });
+    }
+
+    /**
+     * @param c the switched ciphertext
+     * @return number of bytes in the encoding, which has the entries packed in <code>bitLength(q'-1)</code> bits
+     */
+    public static int encodedLength(LWESwitchedCiphertext c) {
+        Matrix matrix = c.getC();
+        BigInteger modulus = c.getModulus();
+        return checkedLength(headerLength(c.getGadget()) + Short.BYTES + modulus.toByteArray().length + 1 +
+                packedLength(matrix.getRows(), matrix.getColumns(), modulus));
+    }
+
+    /**
+     * @param c   the switched ciphertext
+     * @param out buffer with room for {@link #encodedLength(LWESwitchedCiphertext)} bytes
+     */
+    public static void encode(LWESwitchedCiphertext c, ByteBuffer out) {
+        byte[] modulus = c.getModulus().toByteArray();
+        writeHeader(out, SWITCHED_CIPHERTEXT, c.getGadget());
+        out.putShort((short) modulus.length);
+        out.put(modulus);
+        out.put((byte) (c.isDecryptionColumnsOnly() ? 1 : 0));
+        writeEntries(out, c.getC(), c.getModulus());
+    }
+
+    /**
+     * @param in buffer positioned at an encoded switched ciphertext
+     * @return the switched ciphertext
+     */
+    public static LWESwitchedCiphertext decodeSwitchedCiphertext(ByteBuffer in) {
+        return decode(in, "switched ciphertext", buffer -> {
+            Gadget gadget = readHeader(buffer, SWITCHED_CIPHERTEXT);
+            byte[] modulusBytes = new byte[buffer.getShort()];
+            buffer.get(modulusBytes);
+            BigInteger modulus = new BigInteger(modulusBytes);
+            boolean decryptionColumnsOnly = buffer.get() != 0;
+            if (modulus.compareTo(BigInteger.valueOf(2)) < 0 || modulus.compareTo(gadget.getQ()) > 0) {
+                throw new IllegalArgumentException("Malformed switched ciphertext, with modulus " + modulus);
+            }
+            int columns = decryptionColumnsOnly ? gadget.getRows() : gadget.getColumns();
+            return new LWESwitchedCiphertext(readEntries(buffer, gadget.getRows(), columns, modulus), modulus,
+                    gadget, decryptionColumnsOnly);
+        });
+    }
+
+    /**
+     * @param pk  the public key, which is encoded as its seed and last row if it is seeded
+     * @param out buffer with room for {@link #encodedLength(LWEPublicKey)} bytes
+     */
+    public static void encode(LWEPublicKey pk, ByteBuffer out) {
+        Gadget gadget = pk.getGadget();
+        BigInteger q = gadget.getQ();
+        if (pk.isSeeded()) {
+            writeHeader(out, SEEDED_PUBLIC_KEY, gadget);
+            out.putInt(pk.getColumns());
+            out.put(pk.getSeed());
+            writeEntries(out, pk.getLastRow(), q);
+        } else {
+            writeHeader(out, PUBLIC_KEY, gadget);
+            out.putInt(pk.getColumns());
+            writeEntries(out, pk.getKey(), q);
+        }
+    }
+
+    /**
+     * @param in buffer positioned at an encoded public key
+     * @return the public key
+     */
+    public static LWEPublicKey decodePublicKey(ByteBuffer in) {
+        return decode(in, "public key", buffer -> {
+            byte type = peekType(buffer);
+            Gadget gadget = readHeader(buffer, type == SEEDED_PUBLIC_KEY ? SEEDED_PUBLIC_KEY : PUBLIC_KEY);
+            BigInteger q = gadget.getQ();
+            int columns = buffer.getInt();
+            if (columns < 0) {
+                throw new IllegalArgumentException("Malformed public key, with " + columns + " columns");
+            }
+
+            if (type == SEEDED_PUBLIC_KEY) {
+                if (buffer.remaining() < CounterModeGenerator.SEED_BYTES) {
+                    throw new IllegalArgumentException("Truncated seed, with " + buffer.remaining() + " of " +
+                            CounterModeGenerator.SEED_BYTES + " bytes");
+                }
+                byte[] seed = new byte[CounterModeGenerator.SEED_BYTES];
+                buffer.get(seed);
+                return new LWEPublicKey(seed, readEntries(buffer, 1, columns, q), q, gadget);
+            }
+            return new LWEPublicKey(readEntries(buffer, gadget.getRows(), columns, q), q, gadget);
+        });
+    }
+
+    /**
+     * @param sk  the secret key
+     * @param out buffer with room for {@link #encodedLength(LWESecretKey)} bytes
+     */
+    public static void encode(LWESecretKey sk, ByteBuffer out) {
+        writeHeader(out, SECRET_KEY, sk.getGadget());
+        writeEntries(out, sk.getS(), sk.getQ());
+    }
+
+    /**
+     * @param in buffer positioned at an encoded secret key
+     * @return the secret key
+     */
+    public static LWESecretKey decodeSecretKey(ByteBuffer in) {
+        return decode(in, "secret key", buffer -> {
+            Gadget gadget = readHeader(buffer, SECRET_KEY);
+            BigInteger q = gadget.getQ();
+            return new LWESecretKey(readEntries(buffer, 1, gadget.getRows(), q), q, gadget);
+        });
+    }
+
+    /**
+     * Runs a decoder, leaving the position of the buffer unchanged if the encoding is malformed or truncated
+     *
+     * @param in      buffer positioned at an encoding
+     * @param content what is encoded, for the error message
+     * @param decoder reads the encoding from the buffer
+     * @return the decoded content
+     */
+    private static <T> T decode(ByteBuffer in, String content, Function<ByteBuffer, T> decoder) {
+        int position = in.position();
+        try {
+            return decoder.apply(in);
+        } catch (IllegalArgumentException e) {
+            in.position(position);
+            throw e;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            in.position(position);
+            throw new IllegalArgumentException("Truncated " + content, e);
+        }
+    }
+
+    private static int headerLength(Gadget gadget) {
+        //Magic and version, type, rows, length of q, q, base bits, dropped digits
+        return Integer.BYTES + 1 + Integer.BYTES + Short.BYTES + gadget.getQ().toByteArray().length + 2;
+    }
+
+    private static void writeHeader(ByteBuffer out, byte type, Gadget gadget) {
+        byte[] q = gadget.getQ().toByteArray();
+        if (q.length > Short.MAX_VALUE || gadget.getBaseBits() > Byte.MAX_VALUE ||
+                gadget.getDroppedDigits() > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Gadget with q of " + q.length + " bytes, " + gadget.getBaseBits() +
+                    " base bits and " + gadget.getDroppedDigits() + " dropped digits cannot be encoded");
+        }
+        out.putInt(MAGIC | VERSION);
+        out.put(type);
+        out.putInt(gadget.getRows());
+        out.putShort((short) q.length);
+        out.put(q);
+        out.put((byte) gadget.getBaseBits());
+        out.put((byte) gadget.getDroppedDigits());
+    }
+
+    private static byte peekType(ByteBuffer in) {
+        return in.remaining() > Integer.BYTES ? in.get(in.position() + Integer.BYTES) : 0;
+    }
+
+    /**
+     * Reads the header, leaving the position of the buffer unchanged if it is malformed
+     *
+     * @param in           buffer positioned at an encoding
+     * @param expectedType the type of the content
+     * @return the gadget described by the header
+     */
+    private static Gadget readHeader(ByteBuffer in, byte expectedType) {
+        int position = in.position();
+        try {
+            int magic = in.getInt();
+            if ((magic & ~0xFF) != MAGIC) {
+                throw new IllegalArgumentException("Not an LWE encoding");
+            }
+            if ((magic & 0xFF) != VERSION) {
+                throw new IllegalArgumentException("Unsupported version " + (magic & 0xFF) + ", expected " + VERSION);
+            }
+            byte type = in.get();
+            if (type != expectedType) {
+                throw new IllegalArgumentException("Encoding has type " + type + ", expected " + expectedType);
+            }
+            int rows = in.getInt();
+            byte[] qBytes = new byte[in.getShort()];
+            in.get(qBytes);
+            BigInteger q = new BigInteger(qBytes);
+            int baseBits = in.get();
+            int droppedDigits = in.get();
+            if (rows < 1 || q.signum() <= 0) {
+                throw new IllegalArgumentException("Malformed header, with " + rows + " rows and q=" + q);
+            }
+            Gadget gadget = new Gadget(rows, q, baseBits, droppedDigits);
+            if ((long) rows * gadget.getDigits() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Malformed header, with " + rows + " rows of " +
+                        gadget.getDigits() + " digits");
+            }
+            return gadget;
+        } catch (IllegalArgumentException e) {
+            in.position(position);
+            throw e;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            in.position(position);
+            throw new IllegalArgumentException("Truncated header", e);
+        }
+    }
+
+    /**
+     * @return bits used for every entry mod q
+     */
+    private static int entryBits(BigInteger q) {
+        return q.subtract(BigInteger.ONE).bitLength();
+    }
+
+    private static long packedLength(int rows, int columns, BigInteger q) {
+        long bits = (long) rows * columns * entryBits(q);
+        return (bits + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    /**
+     * @param length number of bytes in an encoding
+     * @return the length, if an encoding of it fits in a {@link ByteBuffer}
+     */
+    private static int checkedLength(long length) {
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Encoding of " + length + " bytes exceeds the maximal length of " +
+                    Integer.MAX_VALUE);
+        }
+        return (int) length;
+    }
+
+    private static void writeEntries(ByteBuffer out, Matrix matrix, BigInteger q) {
+        int bits = entryBits(q);
+        ByteOrder order = out.order();
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        BitWriter writer = new BitWriter(out);
+        if (Matrix.fitsInWords(q)) {
+            for (long word : matrix.toWords(q)) {
+                writer.write(word, bits);
+            }
+        } else {
+            for (int row = 0; row < matrix.getRows(); row++) {
+                for (BigInteger entry : matrix.getRow(row)) {
+                    BigInteger value = entry.mod(q);
+                    for (int shift = 0; shift < bits; shift += Long.SIZE) {
+                        writer.write(value.shiftRight(shift).longValue(), Math.min(Long.SIZE, bits - shift));
+                    }
+                }
+            }
+        }
+        writer.flush();
+        out.order(order);
+    }
+
+    private static Matrix readEntries(ByteBuffer in, int rows, int columns, BigInteger q) {
+        int bits = entryBits(q);
+        long count = (long) rows * columns;
+        long packed = packedLength(rows, columns, q);
+        if (count > Integer.MAX_VALUE || packed > in.remaining()) {
+            throw new IllegalArgumentException("Truncated entries, with " + rows + "x" + columns + " entries in " +
+                    in.remaining() + " bytes");
+        }
+        ByteOrder order = in.order();
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            BitReader reader = new BitReader(in, (int) packed);
+            if (Matrix.fitsInWords(q)) {
+                long[] words = new long[(int) count];
+                for (int i = 0; i < count; i++) {
+                    words[i] = reader.read(bits);
+                }
+                return Matrix.fromWords(rows, columns, words, q);
+            }
+
+            BigInteger[] entries = new BigInteger[(int) count];
+            for (int i = 0; i < count; i++) {
+                BigInteger value = BigInteger.ZERO;
+                for (int shift = 0; shift < bits; shift += Long.SIZE) {
+                    int length = Math.min(Long.SIZE, bits - shift);
+                    long chunk = reader.read(length);
+                    BigInteger unsigned = BigInteger.valueOf(chunk >>> 1).shiftLeft(1).or(BigInteger.valueOf(chunk & 1));
+                    value = value.or(unsigned.shiftLeft(shift));
+                }
+                if (value.compareTo(q) >= 0) {
+                    throw new IllegalArgumentException("Entry " + value + " is not below q=" + q);
+                }
+                entries[i] = value;
+            }
+            return Matrix.fromEntries(rows, columns, entries);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated entries", e);
+        } finally {
+            in.order(order);
+        }
+    }
+
+    /**
+     * Writes values of up to 64 bits as a little-endian bitstream
+     */
+    private static final class BitWriter {
+        private final ByteBuffer out;
+        private long pending;
+        private int pendingBits;
+
+        private BitWriter(ByteBuffer out) {
+            this.out = out;
+        }
+
+        /**
+         * @param value  holds the bits in its lowest <code>length</code> bits
+         * @param length number of bits to write, between 1 and 64
+         */
+        private void write(long value, int length) {
+            if (length < Long.SIZE) {
+                value &= (1L << length) - 1;
+            }
+            pending |= value << pendingBits;
+            if (pendingBits + length < Long.SIZE) {
+                pendingBits += length;
+                return;
+            }
+
+            out.putLong(pending);
+            int written = Long.SIZE - pendingBits;
+            pending = written == Long.SIZE ? 0 : value >>> written;
+            pendingBits = length - written;
+        }
+
+        /**
+         * Writes the pending bits, padded to a whole byte
+         */
+        private void flush() {
+            for (int i = 0; i < pendingBits; i += Byte.SIZE) {
+                out.put((byte) pending);
+                pending >>>= Byte.SIZE;
+            }
+            pending = 0;
+            pendingBits = 0;
+        }
+    }
+
+    /**
+     * Reads values of up to 64 bits from a little-endian bitstream of known length
+     */
+    private static final class BitReader {
+        private final ByteBuffer in;
+        private int remainingBytes;
+        private long available;
+        private int availableBits;
+
+        private BitReader(ByteBuffer in, int length) {
+            this.in = in;
+            this.remainingBytes = length;
+        }
+
+        /**
+         * @param length number of bits to read, between 1 and 64
+         * @return the bits, in the lowest <code>length</code> bits
+         */
+        private long read(int length) {
+            long mask = length == Long.SIZE ? -1L : (1L << length) - 1;
+            if (availableBits >= length) {
+                long res = available & mask;
+                available = length == Long.SIZE ? 0 : available >>> length;
+                availableBits -= length;
+                return res;
+            }
+
+            int fetchedBits = Math.min(remainingBytes, Long.BYTES) * Byte.SIZE;
+            long fetched = fetch();
+            int needed = length - availableBits;
+            if (fetchedBits < needed) {
+                throw new BufferUnderflowException();
+            }
+            long res = (available | fetched << availableBits) & mask;
+            available = needed == Long.SIZE ? 0 : fetched >>> needed;
+            availableBits = fetchedBits - needed;
+            return res;
+        }
+
+        private long fetch() {
+            if (remainingBytes >= Long.BYTES) {
+                remainingBytes -= Long.BYTES;
+                return in.getLong();
+            }
+            long res = 0;
+            for (int i = 0; i < remainingBytes; i++) {
+                res |= (in.get() & 0xFFL) << (i * Byte.SIZE);
+            }
+            remainingBytes = 0;
+            return res;
+        }
+    }
+}
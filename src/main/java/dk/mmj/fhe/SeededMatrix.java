@@ -0,0 +1,89 @@
+package dk.mmj.fhe;
+
+import dk.mmj.matrix.Matrix;
+import dk.mmj.sampling.CounterModeGenerator;
+import dk.mmj.sampling.UniformSampler;
+
+import java.math.BigInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Uniformly random matrix mod q, represented by the seed it is derived from
+ * <br/>
+ * Row <i>i</i> is sampled from the streams of a {@link CounterModeGenerator} on the seed, starting at stream
+ * <code>i * 2^32</code>, so every row can be expanded on its own, in any order. Products with the matrix expand
+ * one row at a time, such that the full matrix is never held in memory.
+ */
+class SeededMatrix {
+    private final byte[] seed;
+    private final CounterModeGenerator generator;
+    private final int rows;
+    private final int columns;
+    private final BigInteger q;
+
+    /**
+     * @param seed    the seed - must be {@value CounterModeGenerator#SEED_BYTES} bytes
+     * @param rows    number of rows
+     * @param columns number of columns
+     * @param q       q used in LWE system
+     */
+    SeededMatrix(byte[] seed, int rows, int columns, BigInteger q) {
+        this.seed = seed.clone();
+        this.generator = new CounterModeGenerator(seed);
+        this.rows = rows;
+        this.columns = columns;
+        this.q = q;
+    }
+
+    byte[] getSeed() {
+        return seed.clone();
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    int getColumns() {
+        return columns;
+    }
+
+    /**
+     * @param row index of the row
+     * @return the row, as a 1 x columns matrix
+     */
+    private Matrix row(int row) {
+        return new Matrix(1, columns, new UniformSampler(generator, (long) row << Integer.SIZE), q);
+    }
+
+    /**
+     * @param t row vector with as many entries as the matrix has rows
+     * @return t * B mod q, as a sum of the rows of B weighted by the entries of t
+     */
+    Matrix leftMultiply(Matrix t) {
+        return IntStream.range(0, rows).parallel()
+                .mapToObj(i -> row(i).multiply(t.get(0, i), q))
+                .reduce((a, b) -> a.add(b, q))
+                .orElseGet(() -> new Matrix(1, columns, bound -> BigInteger.ZERO, q));
+    }
+
+    /**
+     * @param r matrix with as many rows as the matrix has columns
+     * @return B * R mod q, computed one row of B at a time
+     */
+    Matrix multiply(Matrix r) {
+        Matrix[] products = IntStream.range(0, rows).parallel()
+                .mapToObj(i -> row(i).multiply(r, q))
+                .toArray(Matrix[]::new);
+        return Matrix.stackRows(products, q);
+    }
+
+    /**
+     * @return the expanded matrix
+     */
+    Matrix toMatrix() {
+        Matrix[] expanded = IntStream.range(0, rows).parallel()
+                .mapToObj(this::row)
+                .toArray(Matrix[]::new);
+        return Matrix.stackRows(expanded, q);
+    }
+}
@@ -24,6 +24,21 @@ public interface FHE <ParameterClass extends FHE.Parameters> {
      */
     Ciphertext encrypt(boolean m, PublicKey publicKey);
 
+    /**
+     * Encrypts a number of messages under the public key
+     *
+     * @param ms        the bits to be encrypted
+     * @param publicKey the public key to encrypt the bits under
+     * @return encryptions of the bits under publicKey, in the same order
+     */
+    default Ciphertext[] encrypt(boolean[] ms, PublicKey publicKey) {
+        Ciphertext[] res = new Ciphertext[ms.length];
+        for (int i = 0; i < ms.length; i++) {
+            res[i] = encrypt(ms[i], publicKey);
+        }
+        return res;
+    }
+
     /**
      * Decrypts a message encrypted under the publicKey, related to the given secretKey
      *
@@ -33,6 +48,21 @@ public interface FHE <ParameterClass extends FHE.Parameters> {
      */
     boolean decrypt(Ciphertext c, SecretKey secretKey);
 
+    /**
+     * Decrypts a number of messages encrypted under the publicKey, related to the given secretKey
+     *
+     * @param cs        the ciphertexts
+     * @param secretKey the secret key, relating to the public key used for encryption
+     * @return the plaintext values, such that <code>cs[i] = ENC(x[i])</code>
+     */
+    default boolean[] decrypt(Ciphertext[] cs, SecretKey secretKey) {
+        boolean[] res = new boolean[cs.length];
+        for (int i = 0; i < cs.length; i++) {
+            res[i] = decrypt(cs[i], secretKey);
+        }
+        return res;
+    }
+
     /**
      * Evaluates not on an encrypted message
      *
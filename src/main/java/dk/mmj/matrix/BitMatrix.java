@@ -0,0 +1,186 @@
+package dk.mmj.matrix;
+
+import dk.mmj.sampling.UniformSampler;
+
+import java.math.BigInteger;
+
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.ZERO;
+
+/**
+ * Matrix of zeros and ones, packed 64 entries to a word
+ * <br/>
+ * The entries are packed column by column, such that every column is a contiguous bitset. This is the layout in
+ * which the right-hand matrix of {@link Matrix#multiply(Matrix, BigInteger)} is read, so multiplying by a BitMatrix
+ * never unpacks it, but only visits the set bits.
+ * <br/>
+ * Any other operation sees the matrix as an ordinary matrix, with entries unpacked as needed.
+ */
+public class BitMatrix extends Matrix {
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+    private final int wordsPerColumn;
+    /**
+     * The entries - column <i>c</i> is found in words <code>[c*wordsPerColumn, (c+1)*wordsPerColumn)</code>,
+     * with the entry of row <i>r</i> as bit <code>r mod 64</code> of word <code>r/64</code>
+     */
+    private final long[] bits;
+
+    /**
+     * Creates matrix with given dimensions - all entries are zero
+     *
+     * @param nrOfRows number of rows
+     * @param nrOfCols number of columns
+     */
+    public BitMatrix(int nrOfRows, int nrOfCols) {
+        super(nrOfRows, nrOfCols, null, null, null, 0, 0, 0);
+        this.wordsPerColumn = (nrOfRows + Long.SIZE - 1) / Long.SIZE;
+        this.bits = new long[wordsPerColumn * nrOfCols];
+    }
+
+    /**
+     * Creates matrix with given dimensions - all entries are random bits
+     *
+     * @param nrOfRows number of rows
+     * @param nrOfCols number of columns
+     * @param rand     provider of randomness for the instantiation, which is asked for values below 2
+     */
+    public BitMatrix(int nrOfRows, int nrOfCols, Random rand) {
+        this(nrOfRows, nrOfCols);
+        for (int col = 0; col < nrOfCols; col++) {
+            for (int row = 0; row < nrOfRows; row++) {
+                if (rand.nextRandom(TWO).signum() != 0) {
+                    set(row, col);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates matrix with given dimensions - all entries are random bits, drawn 64 at a time
+     *
+     * @param nrOfRows number of rows
+     * @param nrOfCols number of columns
+     * @param sampler  source of the random bits
+     */
+    public BitMatrix(int nrOfRows, int nrOfCols, UniformSampler sampler) {
+        this(nrOfRows, nrOfCols);
+        sampler.fillBits(bits);
+
+        //Clear the bits beyond the last row in every column
+        if (nrOfRows % Long.SIZE != 0) {
+            long mask = (1L << nrOfRows) - 1;
+            for (int col = 0; col < nrOfCols; col++) {
+                bits[(col + 1) * wordsPerColumn - 1] &= mask;
+            }
+        }
+    }
+
+    /**
+     * Sets an entry to one
+     *
+     * @param row    the row
+     * @param column the column
+     */
+    void set(int row, int column) {
+        bits[column * wordsPerColumn + (row >>> 6)] |= 1L << row;
+    }
+
+    /**
+     * Sets the entries of a column to the low bits of a value, where bit <i>i</i> of the value goes to row
+     * <code>row+i</code>. The entries must be zero beforehand.
+     *
+     * @param row    the first row to write
+     * @param column the column
+     * @param value  the bits to write
+     * @param length number of bits to write - at most 64
+     */
+    void setBits(int row, int column, long value, int length) {
+        if (length < Long.SIZE) {
+            value &= (1L << length) - 1;
+        }
+        int word = column * wordsPerColumn + (row >>> 6);
+        int shift = row & 63;
+        bits[word] |= value << shift;
+        if (shift != 0 && shift + length > Long.SIZE) {
+            bits[word + 1] |= value >>> (Long.SIZE - shift);
+        }
+    }
+
+    /**
+     * @param row    the row
+     * @param column the column
+     * @return whether the entry is one
+     */
+    boolean testBit(int row, int column) {
+        return (bits[column * wordsPerColumn + (row >>> 6)] >>> row & 1) != 0;
+    }
+
+    /**
+     * @return the packed entries, see {@link #bits}
+     */
+    long[] packed() {
+        return bits;
+    }
+
+    /**
+     * @return number of words used for every column
+     */
+    int wordsPerColumn() {
+        return wordsPerColumn;
+    }
+
+    @Override
+    public BigInteger get(int row, int column) {
+        return testBit(row, column) ? ONE : ZERO;
+    }
+
+    @Override
+    boolean isBinary() {
+        return true;
+    }
+
+    @Override
+    long[] wordsModulo(WordArithmetic arithmetic, BigInteger q, boolean columnMajor) {
+        int rows = getRows();
+        int columns = getColumns();
+        long[] res = new long[rows * columns];
+        long one = arithmetic.reduce(1);
+        for (int col = 0; col < columns; col++) {
+            for (int row = 0; row < rows; row++) {
+                if (testBit(row, col)) {
+                    res[columnMajor ? col * rows + row : row * columns + col] = one;
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Selects a range of consecutive columns. As every column is packed on its own, the range is a copy of its words
+     *
+     * @param from first column in the range, inclusive
+     * @param to   last column in the range, exclusive
+     * @return the columns <code>[from, to)</code> of this matrix
+     */
+    @Override
+    public BitMatrix columnRange(int from, int to) {
+        if (from < 0 || to > getColumns() || from > to) {
+            throw new MalformedMatrixException("Columns [" + from + ", " + to + ") are outside matrix with " +
+                    getColumns() + " columns");
+        }
+        BitMatrix res = new BitMatrix(getRows(), to - from);
+        System.arraycopy(bits, from * wordsPerColumn, res.bits, 0, res.bits.length);
+        return res;
+    }
+
+    /**
+     * Transposes the matrix. As the packing follows the columns, the transpose is an unpacked copy
+     *
+     * @return the transpose of this matrix
+     */
+    @Override
+    public Matrix transpose() {
+        return columnMajor(getRows(), getColumns(), wordsModulo(WordArithmetic.forModulus(TWO), TWO, true), TWO)
+                .transpose();
+    }
+}
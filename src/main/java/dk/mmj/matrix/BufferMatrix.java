@@ -0,0 +1,118 @@
+package dk.mmj.matrix;
+
+import java.math.BigInteger;
+import java.nio.LongBuffer;
+
+/**
+ * Matrix whose entries are read directly from a {@link LongBuffer}, such as a view of a memory-mapped file
+ * <br/>
+ * The entries are unsigned words below q, stored in row-major order from index 0 of the buffer. Nothing is copied
+ * on creation: single entries are read from the buffer on access, and operations that need all entries, or all
+ * entries of some columns, read them in bulk in a single pass. Changes to the buffer are therefore seen by the matrix.
+ */
+public class BufferMatrix extends Matrix {
+    private final LongBuffer entries;
+    private final BigInteger q;
+
+    /**
+     * @param nrOfRows number of rows
+     * @param nrOfCols number of columns
+     * @param entries  the entries in row-major order, as unsigned words below q - at least nrOfRows*nrOfCols of them
+     * @param q        exclusive upper bound on the entries - must fit in 63 bits, or be a power of two of at most 2^64
+     */
+    public BufferMatrix(int nrOfRows, int nrOfCols, LongBuffer entries, BigInteger q) {
+        super(nrOfRows, nrOfCols, null, null, null, 0, 0, 0);
+        if (WordArithmetic.forModulus(q) == null || entries.limit() < nrOfRows * nrOfCols) {
+            throw new IllegalArgumentException("Unable to view " + entries.limit() + " words as " + nrOfRows + "x" +
+                    nrOfCols + " matrix mod q=" + q);
+        }
+        this.entries = entries;
+        this.q = q;
+    }
+
+    private long word(int row, int column) {
+        return entries.get(row * getColumns() + column);
+    }
+
+    @Override
+    public BigInteger get(int row, int column) {
+        return toBigInteger(word(row, column));
+    }
+
+    @Override
+    boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    long[] wordsModulo(WordArithmetic arithmetic, BigInteger q, boolean columnMajor) {
+        int rows = getRows();
+        int columns = getColumns();
+        long[] res = new long[rows * columns];
+        boolean reduced = this.q.compareTo(q) <= 0;
+        if (reduced && !columnMajor) {
+            LongBuffer source = entries.duplicate();
+            source.position(0);
+            source.get(res);
+            return res;
+        }
+
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                long word = word(row, col);
+                res[columnMajor ? col * rows + row : row * columns + col] = reduced
+                        ? word
+                        : toBigInteger(word).mod(q).longValue();
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Reads the buffer a whole row at a time, as the entries of a column are not consecutive in it
+     */
+    @Override
+    void copyColumns(int[] columns, BigInteger modulo, long[] res, int offset) {
+        int rows = getRows();
+        boolean reduced = q.compareTo(modulo) <= 0;
+        long[] row = new long[getColumns()];
+        LongBuffer source = entries.duplicate();
+        source.position(0);
+        for (int r = 0; r < rows; r++) {
+            source.get(row);
+            for (int j = 0; j < columns.length; j++) {
+                long word = row[columns[j]];
+                res[offset + j * rows + r] = reduced ? word : toBigInteger(word).mod(modulo).longValue();
+            }
+        }
+    }
+
+    /**
+     * Selects a range of consecutive columns, as a copy of the entries
+     *
+     * @param from first column in the range, inclusive
+     * @param to   last column in the range, exclusive
+     * @return the columns <code>[from, to)</code> of this matrix
+     */
+    @Override
+    public Matrix columnRange(int from, int to) {
+        return copy().columnRange(from, to);
+    }
+
+    /**
+     * Transposes the matrix, as a copy of the entries
+     *
+     * @return the transpose of this matrix
+     */
+    @Override
+    public Matrix transpose() {
+        return copy().transpose();
+    }
+
+    /**
+     * @return the matrix, copied out of the buffer
+     */
+    public Matrix copy() {
+        return rowMajor(getRows(), getColumns(), wordsModulo(WordArithmetic.forModulus(q), q, false), q);
+    }
+}
@@ -0,0 +1,310 @@
+package dk.mmj.matrix;
+
+import java.math.BigInteger;
+import java.util.stream.IntStream;
+
+import static java.math.BigInteger.ONE;
+
+/**
+ * The gadget matrix G, for the decomposition base B = 2^k, represented implicitly by its dimensions
+ * <br/>
+ * G is block-diagonal, with row <i>i</i> holding the vector g = (1, B, ..., B^(d-2), 2^(logQ-1)) in columns
+ * <code>[i*d, (i+1)*d)</code>, and zeros everywhere else, where d = ceil((logQ-1)/k) + 1 is the number of digits.
+ * Keeping 2^(logQ-1) as the most significant entry means decryption, and XOR, work for any base as for B = 2.
+ * <br/>
+ * The gadget can be approximate, dropping the lowest l entries of g. G^-1 then truncates the corresponding low-order
+ * bits, such that G*G^-1(M) only approximates M, with an error below 2^e, where 2^e is the first kept entry of g.
+ * <br/>
+ * Operations involving G only touch the n*d entries of the diagonal blocks, instead of the full matrix.
+ */
+public class Gadget {
+    private final int n;
+    private final int logQ;
+    private final int baseBits;
+    private final int droppedDigits;
+    private final int digits;
+    private final BigInteger q;
+
+    /**
+     * Creates the gadget for the binary decomposition, B = 2
+     *
+     * @param n number of rows in G
+     * @param q q used in LWE system
+     */
+    public Gadget(int n, BigInteger q) {
+        this(n, q, 1);
+    }
+
+    /**
+     * @param n        number of rows in G
+     * @param q        q used in LWE system
+     * @param baseBits k, such that the decomposition base is B = 2^k. Must be between 1 and logQ
+     */
+    public Gadget(int n, BigInteger q, int baseBits) {
+        this(n, q, baseBits, 0);
+    }
+
+    /**
+     * @param n             number of rows in G
+     * @param q             q used in LWE system
+     * @param baseBits      k, such that the decomposition base is B = 2^k. Must be between 1 and logQ
+     * @param droppedDigits l, the number of low-order digits dropped from the decomposition.
+     *                      At least the most significant digit must be kept
+     */
+    public Gadget(int n, BigInteger q, int baseBits, int droppedDigits) {
+        this.n = n;
+        this.logQ = LWEUtils.logQ(q);
+        if (baseBits < 1 || baseBits > logQ) {
+            throw new IllegalArgumentException("Base bits must be between 1 and logQ=" + logQ + ", was " + baseBits);
+        }
+        int allDigits = LWEUtils.digits(logQ, baseBits);
+        if (droppedDigits < 0 || droppedDigits >= allDigits) {
+            throw new IllegalArgumentException("Dropped digits must be between 0 and " + (allDigits - 1) +
+                    ", was " + droppedDigits);
+        }
+        this.baseBits = baseBits;
+        this.droppedDigits = droppedDigits;
+        this.digits = allDigits - droppedDigits;
+        this.q = q;
+    }
+
+    public int getRows() {
+        return n;
+    }
+
+    public int getColumns() {
+        return n * digits;
+    }
+
+    public BigInteger getQ() {
+        return q;
+    }
+
+    /**
+     * @return k, such that the decomposition base is B = 2^k
+     */
+    public int getBaseBits() {
+        return baseBits;
+    }
+
+    /**
+     * @return l, the number of low-order digits dropped from the decomposition
+     */
+    public int getDroppedDigits() {
+        return droppedDigits;
+    }
+
+    /**
+     * @return number of digits every value is decomposed into, which is the number of entries in g
+     */
+    public int getDigits() {
+        return digits;
+    }
+
+    /**
+     * @param row a row of G
+     * @return the column of the most significant entry of g, in the given row
+     */
+    public int mostSignificantColumn(int row) {
+        return row * digits + digits - 1;
+    }
+
+    /**
+     * @return the most significant entry of g, 2^(logQ-1)
+     */
+    public BigInteger mostSignificantEntry() {
+        return ONE.shiftLeft(exponent(digits - 1));
+    }
+
+    /**
+     * @param digit index of the entry in g
+     * @return the exponent of the entry in g
+     */
+    private int exponent(int digit) {
+        return LWEUtils.gadgetExponent(digit + droppedDigits, logQ, baseBits);
+    }
+
+    /**
+     * @param digit index of the entry in g
+     * @return the entry of g, which is always below q
+     */
+    private long gWord(int digit) {
+        return 1L << exponent(digit);
+    }
+
+    /**
+     * Computes x*G + C
+     *
+     * @param c matrix with same dimensions as G
+     * @param x scalar to multiply G with
+     * @return x*G + C mod q
+     */
+    public Matrix addTo(Matrix c, BigInteger x) {
+        assertSameDimensions(c);
+        if (x.mod(q).signum() == 0) {
+            return c;
+        }
+
+        int columns = getColumns();
+        WordArithmetic arithmetic = WordArithmetic.forModulus(q);
+        if (arithmetic != null) {
+            long[] res = c.wordsModulo(arithmetic, q, false);
+            if (c.isBackedBy(res)) {
+                res = res.clone();
+            }
+            long xWord = x.mod(q).longValue();
+            for (int row = 0; row < n; row++) {
+                for (int i = 0; i < digits; i++) {
+                    int idx = row * columns + row * digits + i;
+                    res[idx] = arithmetic.add(res[idx], arithmetic.multiply(xWord, gWord(i)));
+                }
+            }
+            return Matrix.rowMajor(n, columns, res, q);
+        }
+
+        BigInteger[] res = c.bigIntegers(false);
+        if (c.isBackedBy(res)) {
+            res = res.clone();
+        }
+        for (int row = 0; row < n; row++) {
+            for (int i = 0; i < digits; i++) {
+                int idx = row * columns + row * digits + i;
+                res[idx] = res[idx].add(x.shiftLeft(exponent(i))).mod(q);
+            }
+        }
+        return Matrix.rowMajor(n, columns, res);
+    }
+
+    /**
+     * Computes G - C
+     *
+     * @param c matrix with same dimensions as G
+     * @return G - C mod q
+     */
+    public Matrix subtract(Matrix c) {
+        assertSameDimensions(c);
+
+        int columns = getColumns();
+        WordArithmetic arithmetic = WordArithmetic.forModulus(q);
+        if (arithmetic != null) {
+            long[] cWords = c.wordsModulo(arithmetic, q, false);
+            long[] res = new long[cWords.length];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = arithmetic.negate(cWords[i]);
+            }
+            for (int row = 0; row < n; row++) {
+                for (int i = 0; i < digits; i++) {
+                    int idx = row * columns + row * digits + i;
+                    res[idx] = arithmetic.add(res[idx], gWord(i));
+                }
+            }
+            return Matrix.rowMajor(n, columns, res, q);
+        }
+
+        BigInteger[] cInner = c.bigIntegers(false);
+        BigInteger[] res = new BigInteger[cInner.length];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = cInner[i].negate().mod(q);
+        }
+        for (int row = 0; row < n; row++) {
+            for (int i = 0; i < digits; i++) {
+                int idx = row * columns + row * digits + i;
+                res[idx] = res[idx].add(ONE.shiftLeft(exponent(i))).mod(q);
+            }
+        }
+        return Matrix.rowMajor(n, columns, res);
+    }
+
+    /**
+     * Computes S*G, where entry (r, i*d + j) is S[r][i] * g[j]
+     *
+     * @param s matrix with as many columns as G has rows
+     * @return S*G mod q
+     */
+    public Matrix leftMultiply(Matrix s) {
+        if (s.getColumns() != n) {
+            throw new MalformedMatrixException("Matrix with dimensions " + s.getRows() + "x" + s.getColumns() +
+                    " cannot be multiplied with gadget matrix with dimensions " + n + "x" + getColumns());
+        }
+
+        int rows = s.getRows();
+        int columns = getColumns();
+        WordArithmetic arithmetic = WordArithmetic.forModulus(q);
+        if (arithmetic != null) {
+            long[] sWords = s.wordsModulo(arithmetic, q, false);
+            long[] res = new long[rows * columns];
+            for (int r = 0; r < rows; r++) {
+                for (int i = 0; i < n; i++) {
+                    long value = sWords[r * n + i];
+                    for (int j = 0; j < digits; j++) {
+                        res[r * columns + i * digits + j] = arithmetic.multiply(value, gWord(j));
+                    }
+                }
+            }
+            return Matrix.rowMajor(rows, columns, res, q);
+        }
+
+        BigInteger[] res = new BigInteger[rows * columns];
+        for (int r = 0; r < rows; r++) {
+            for (int i = 0; i < n; i++) {
+                BigInteger value = s.get(r, i).mod(q);
+                for (int j = 0; j < digits; j++) {
+                    res[r * columns + i * digits + j] = value.shiftLeft(exponent(j)).mod(q);
+                }
+            }
+        }
+        return Matrix.rowMajor(rows, columns, res);
+    }
+
+    /**
+     * Computes C*G^-1(M), without building G^-1(M).
+     * <br/>
+     * Every entry of the result sums the entries of a row of C weighted by the digits of a column of M,
+     * with the digits extracted on the fly. For B = 2 this is a sum of the entries matching the set bits.
+     *
+     * @param c matrix with as many columns as G
+     * @param m matrix with as many rows as G
+     * @return C*G^-1(M) mod q
+     */
+    public Matrix multiplyInverse(Matrix c, Matrix m) {
+        int columns = getColumns();
+        if (c.getColumns() != columns || m.getRows() != n) {
+            throw new MalformedMatrixException("Matrix with dimensions " + c.getRows() + "x" + c.getColumns() +
+                    " cannot be multiplied with the decomposition of matrix with dimensions " +
+                    m.getRows() + "x" + m.getColumns());
+        }
+
+        WordArithmetic arithmetic = WordArithmetic.forModulus(q);
+        if (arithmetic == null) {
+            return c.multiply(LWEUtils.calculateGInverse(m, q, baseBits, droppedDigits), q);
+        }
+
+        int rows = c.getRows();
+        int p = m.getColumns();
+        long[] cWords = c.wordsModulo(arithmetic, q, false);
+        long[] mWords = m.wordsModulo(arithmetic, q, true);
+        long[] res = new long[rows * p];
+        IntStream.range(0, p).parallel().forEach(col -> {
+            for (int row = 0; row < rows; row++) {
+                res[row * p + col] = arithmetic.decomposedDot(cWords, row * columns, mWords, col * n, n,
+                        logQ, baseBits, droppedDigits);
+            }
+        });
+
+        return Matrix.rowMajor(rows, p, res, q);
+    }
+
+    /**
+     * @return G as an explicit matrix
+     */
+    public Matrix toMatrix() {
+        return LWEUtils.createG(n, q, baseBits, droppedDigits);
+    }
+
+    private void assertSameDimensions(Matrix c) {
+        if (c.getRows() != n || c.getColumns() != getColumns()) {
+            throw new MalformedMatrixException("Matrix with dimensions " + c.getRows() + "x" + c.getColumns() +
+                    " does not match gadget matrix with dimensions " + n + "x" + getColumns());
+        }
+    }
+}
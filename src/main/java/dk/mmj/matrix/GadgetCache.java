@@ -0,0 +1,151 @@
+package dk.mmj.matrix;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of explicit gadget matrices G, keyed by (n, q, baseBits, droppedDigits)
+ * <br/>
+ * When full, the least recently used matrix is evicted. The cache is safe for concurrent use: lookups hold the
+ * lock of the cache only briefly, and a missing matrix is built without holding it, such that a large G being built
+ * does not block lookups of other matrices. The cached matrices are shared, and must not be modified.
+ */
+public class GadgetCache {
+    /**
+     * Capacity of the cache used by {@link LWEUtils#createG(int, BigInteger, int, int)}
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+    private final int capacity;
+    private final LinkedHashMap<Key, Matrix> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity maximum number of matrices held at once
+     */
+    public GadgetCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, was " + capacity);
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, Matrix>(16, 0.75f, true) {//Access order, for LRU eviction
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Matrix> eldest) {
+                if (size() > GadgetCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param n             number of rows in G
+     * @param q             q used in LWE system
+     * @param baseBits      k, such that the decomposition base is B = 2^k
+     * @param droppedDigits l, the number of low-order digits dropped from the decomposition
+     * @param builder       builds G, if not in the cache
+     * @return the cached G, or the newly built one
+     */
+    Matrix get(int n, BigInteger q, int baseBits, int droppedDigits, Supplier<Matrix> builder) {
+        Key key = new Key(n, q, baseBits, droppedDigits);
+        synchronized (this) {
+            Matrix cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+
+        Matrix built = builder.get();
+        synchronized (this) {
+            //Another thread may have built the same matrix meanwhile, in which case its matrix is kept
+            Matrix cached = entries.putIfAbsent(key, built);
+            return cached != null ? cached : built;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of matrices in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of lookups answered by the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups which had to build G
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of matrices evicted to make room for others
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return fraction of the lookups answered by the cache, or 0 if there has been none
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Removes every matrix from the cache, and resets the metrics
+     */
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    private static final class Key {
+        private final int n;
+        private final BigInteger q;
+        private final int baseBits;
+        private final int droppedDigits;
+
+        private Key(int n, BigInteger q, int baseBits, int droppedDigits) {
+            this.n = n;
+            this.q = q;
+            this.baseBits = baseBits;
+            this.droppedDigits = droppedDigits;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return n == key.n && baseBits == key.baseBits && droppedDigits == key.droppedDigits &&
+                    q.equals(key.q);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(n, q, baseBits, droppedDigits);
+        }
+    }
+}
@@ -8,7 +8,14 @@ import static java.math.BigInteger.*;
 
 @SuppressWarnings("UnnecessaryLocalVariable")//Readability is important
 public class LWEUtils {
-    private static Matrix lastCalculatedG = null;
+    private static final GadgetCache gadgetCache = new GadgetCache(GadgetCache.DEFAULT_CAPACITY);
+
+    /**
+     * @return the cache of the matrices returned by {@link #createG(int, BigInteger, int, int)}
+     */
+    public static GadgetCache getGadgetCache() {
+        return gadgetCache;
+    }
 
     /**
      * Calculates logQ of a BigInteger q, which is a power of 2.
@@ -21,28 +28,80 @@ public class LWEUtils {
     }
 
 
+    /**
+     * The decomposition keeps the most significant bit as a digit of its own, such that the last entry of g is
+     * always 2^(logQ-1), and splits the remaining logQ-1 bits in digits of baseBits bits each
+     *
+     * @param logQ     number of bits to decompose
+     * @param baseBits k, such that the decomposition base is B = 2^k
+     * @return number of digits needed for logQ bits
+     */
+    public static int digits(int logQ, int baseBits) {
+        if (logQ <= 1) {
+            return logQ;
+        }
+        return (logQ - 1 + baseBits - 1) / baseBits + 1;
+    }
+
+    /**
+     * @param digit    index of the digit
+     * @param logQ     number of bits to decompose
+     * @param baseBits k, such that the decomposition base is B = 2^k
+     * @return the exponent e, such that entry <i>digit</i> of g is 2^e
+     */
+    public static int gadgetExponent(int digit, int logQ, int baseBits) {
+        return digit == digits(logQ, baseBits) - 1 ? logQ - 1 : digit * baseBits;
+    }
+
     /**
      * Creates the matrix G for use in LWE encryption
      */
     public static Matrix createG(int n, BigInteger q) {
+        return createG(n, q, 1);
+    }
+
+    /**
+     * Creates the matrix G for use in LWE encryption, with decomposition base B = 2^baseBits
+     */
+    public static Matrix createG(int n, BigInteger q, int baseBits) {
+        return createG(n, q, baseBits, 0);
+    }
+
+    /**
+     * Creates the approximate matrix G for use in LWE encryption, with decomposition base B = 2^baseBits,
+     * leaving out the lowest droppedDigits entries of g
+     * <br/>
+     * The matrix is shared through {@link #getGadgetCache()}, and must not be modified
+     */
+    public static Matrix createG(int n, BigInteger q, int baseBits, int droppedDigits) {
+        return gadgetCache.get(n, q, baseBits, droppedDigits, () -> buildG(n, q, baseBits, droppedDigits));
+    }
+
+    private static Matrix buildG(int n, BigInteger q, int baseBits, int droppedDigits) {
         int rows = n;
         int ceilLogQ = logQ(q);
-        int columns = n * ceilLogQ;
+        BigInteger[] g = calculateSmallG(ceilLogQ, baseBits, droppedDigits);
+        int columns = n * g.length;
+
+        if (WordArithmetic.fits(q)) {
+            long[] inner = new long[rows * columns];
+            for (int row = 0; row < rows; row++) {
+                for (int i = 0; i < g.length; i++) {
+                    inner[row * columns + row * g.length + i] = g[i].longValue();
+                }
+            }
 
-        if(lastCalculatedG != null && lastCalculatedG.getRows() == rows && lastCalculatedG.getColumns() == columns){
-            return lastCalculatedG;
+            return Matrix.rowMajor(rows, columns, inner, q);
         }
 
         BigInteger[][] inner = new BigInteger[rows][columns];
 
-        BigInteger[] g = calculateSmallG(ceilLogQ);
-
         for (int row = 0; row < rows; row++) {
             Arrays.fill(inner[row], ZERO);
             System.arraycopy(g, 0, inner[row], row * g.length, g.length);
         }
 
-        return lastCalculatedG = new Matrix(inner);
+        return new Matrix(inner);
     }
 
 
@@ -52,10 +111,29 @@ public class LWEUtils {
      * @return vector g
      */
     public static BigInteger[] calculateSmallG(int bitLength) {
-        BigInteger[] res = new BigInteger[bitLength];
+        return calculateSmallG(bitLength, 1);
+    }
+
+    /**
+     * Calculates the vector <i>g</i> for the decomposition base B = 2^baseBits
+     *
+     * @return vector g = (1, B, ..., B^(d-2), 2^(bitLength-1)), see {@link #digits(int, int)}
+     */
+    public static BigInteger[] calculateSmallG(int bitLength, int baseBits) {
+        return calculateSmallG(bitLength, baseBits, 0);
+    }
+
+    /**
+     * Calculates the vector <i>g</i> for the decomposition base B = 2^baseBits, without its lowest droppedDigits
+     * entries
+     *
+     * @return vector g = (B^l, ..., B^(d-2), 2^(bitLength-1)), see {@link #digits(int, int)}
+     */
+    public static BigInteger[] calculateSmallG(int bitLength, int baseBits, int droppedDigits) {
+        BigInteger[] res = new BigInteger[digits(bitLength, baseBits) - droppedDigits];
 
-        for (int i = 0; i < bitLength; i++) {
-            res[i] = BigInteger.valueOf(2).pow(i);
+        for (int i = 0; i < res.length; i++) {
+            res[i] = ONE.shiftLeft(gadgetExponent(i + droppedDigits, bitLength, baseBits));
         }
 
         return res;
@@ -83,25 +161,87 @@ public class LWEUtils {
 
     /**
      * Evaluates G^{-1}(m) function on matrix m.
+     * <br/>
+     * Column j of the result is the bit decomposition of column j of m, which is written directly into the packed
+     * columns of a {@link BitMatrix}.
      *
      * @param m matrix (n x n*logQ)
      * @param q q used in LWE system
      * @return new Matrix
      */
-    public static Matrix calculateGInverse(Matrix m, BigInteger q) {
-        Matrix mTrans = m.transpose();
+    public static BitMatrix calculateGInverse(Matrix m, BigInteger q) {
         int ceilLogQ = logQ(q);
+        int rows = m.getRows() * ceilLogQ;
+        int columns = m.getColumns();
 
-        BigInteger[][] inner = new BigInteger[mTrans.getRows()][mTrans.getColumns() * ceilLogQ];
-        for (int row = 0; row < mTrans.getRows(); row++) {
-            for (int col = 0; col < mTrans.getColumns(); col++) {
-                BigInteger[] decompose = Matrix.decompose(mTrans.get(row, col), ceilLogQ).asVector();
-                System.arraycopy(decompose, 0, inner[row], col * ceilLogQ, ceilLogQ);
+        BitMatrix res = new BitMatrix(rows, columns);
+        for (int row = 0; row < m.getRows(); row++) {
+            for (int col = 0; col < columns; col++) {
+                BigInteger value = m.get(row, col);
+                int offset = row * ceilLogQ;
+                for (int bit = 0; bit < ceilLogQ; bit += Long.SIZE) {
+                    int length = Math.min(Long.SIZE, ceilLogQ - bit);
+                    res.setBits(offset + bit, col, value.shiftRight(bit).longValue(), length);
+                }
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Evaluates G^-1(m) function on matrix m, for the decomposition base B = 2^baseBits.
+     * <br/>
+     * Column j of the result is the decomposition of column j of m, as described in {@link #digits(int, int)},
+     * with the least significant digit first
+     *
+     * @param m        matrix (n x n*d)
+     * @param q        q used in LWE system
+     * @param baseBits k, such that the decomposition base is B = 2^k
+     * @return new Matrix
+     */
+    public static Matrix calculateGInverse(Matrix m, BigInteger q, int baseBits) {
+        return calculateGInverse(m, q, baseBits, 0);
+    }
+
+    /**
+     * Evaluates the approximate G^-1(m) function on matrix m, for the decomposition base B = 2^baseBits.
+     * <br/>
+     * As {@link #calculateGInverse(Matrix, BigInteger, int)}, but leaving out the lowest droppedDigits digits
+     *
+     * @param m             matrix (n x n*(d-l))
+     * @param q             q used in LWE system
+     * @param baseBits      k, such that the decomposition base is B = 2^k
+     * @param droppedDigits l, the number of low-order digits to leave out
+     * @return new Matrix
+     */
+    public static Matrix calculateGInverse(Matrix m, BigInteger q, int baseBits, int droppedDigits) {
+        if (baseBits == 1 && droppedDigits == 0) {
+            return calculateGInverse(m, q);
+        }
+
+        int ceilLogQ = logQ(q);
+        int allDigits = digits(ceilLogQ, baseBits);
+        int digits = allDigits - droppedDigits;
+        int rows = m.getRows() * digits;
+        int columns = m.getColumns();
+        BigInteger lowMask = ONE.shiftLeft(ceilLogQ - 1).subtract(ONE);
+        BigInteger digitMask = ONE.shiftLeft(baseBits).subtract(ONE);
+
+        BigInteger[][] inner = new BigInteger[rows][columns];
+        for (int row = 0; row < m.getRows(); row++) {
+            for (int col = 0; col < columns; col++) {
+                BigInteger value = m.get(row, col);
+                BigInteger low = value.and(lowMask);
+                for (int digit = droppedDigits; digit < allDigits - 1; digit++) {
+                    inner[row * digits + digit - droppedDigits][col] =
+                            low.shiftRight(digit * baseBits).and(digitMask);
+                }
+                inner[row * digits + digits - 1][col] = value.testBit(ceilLogQ - 1) ? ONE : ZERO;
             }
         }
 
-        Matrix transpose = new Matrix(inner).transpose();
-        return transpose;
+        return new Matrix(inner);
     }
 
     /**
@@ -1,20 +1,44 @@
 package dk.mmj.matrix;
 
+import dk.mmj.sampling.Sampler;
+
 import java.math.BigInteger;
-import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.IntConsumer;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 /**
  * Matrix of BigIntegers
+ * <br/>
+ * Whenever the entries are known to be reduced modulo a q that fits in 63 bits, or is a power of two of at most 2^64,
+ * they are kept as primitive longs, and all arithmetic mod such a q is done on longs.
+ * This is transparent for users of the matrix.
+ * <br/>
+ * Entries are stored in a single contiguous array, addressed through explicit strides. This allows both row-major
+ * and column-major layouts, and makes transposition a matter of swapping the strides.
  */
 public class Matrix {
+    private static final BigInteger TWO = BigInteger.valueOf(2);
     private final int nrOfRows;
     private final int nrOfCols;
-    private final BigInteger[][] inner;
+    /**
+     * BigInteger representation of the entries - null if the matrix is backed by words
+     */
+    private final BigInteger[] inner;
+    /**
+     * Word representation of the entries - null if the matrix is backed by BigIntegers
+     */
+    private final long[] words;
+    /**
+     * Exclusive upper bound on the entries in <code>words</code>
+     */
+    private final BigInteger bound;
+    private final int offset;
+    private final int rowStride;
+    private final int colStride;
     private boolean concurrent = true;
+    private boolean tiled = true;
 
 
     /**
@@ -23,9 +47,11 @@ public class Matrix {
      * @param matrix the data
      */
     Matrix(BigInteger[][] matrix) {
-        this.nrOfRows = matrix.length;
-        this.nrOfCols = matrix[0].length;
-        this.inner = matrix;
+        this(matrix.length, matrix[0].length, new BigInteger[matrix.length * matrix[0].length], null, null,
+                0, matrix[0].length, 1);
+        for (int row = 0; row < nrOfRows; row++) {
+            System.arraycopy(matrix[row], 0, inner, row * nrOfCols, nrOfCols);
+        }
     }
 
     /**
@@ -35,9 +61,7 @@ public class Matrix {
      * @param nrOfCols number of columns
      */
     public Matrix(int nrOfRows, int nrOfCols) {
-        this.nrOfRows = nrOfRows;
-        this.nrOfCols = nrOfCols;
-        inner = new BigInteger[nrOfRows][nrOfCols];
+        this(nrOfRows, nrOfCols, new BigInteger[nrOfRows * nrOfCols], null, null, 0, nrOfCols, 1);
     }
 
     /**
@@ -49,23 +73,106 @@ public class Matrix {
      * @param q        is the biggest allowed number (All calculations are mod q)
      */
     public Matrix(int nrOfRows, int nrOfCols, Random rand, BigInteger q) {
-        this(nrOfRows, nrOfCols);
+        this(nrOfRows, nrOfCols,
+                WordArithmetic.fits(q) ? null : new BigInteger[nrOfRows * nrOfCols],
+                WordArithmetic.fits(q) ? new long[nrOfRows * nrOfCols] : null,
+                WordArithmetic.fits(q) ? q : null,
+                0, 1, nrOfRows);
+
+        //Filled column by column, so the matrix is stored in column-major layout
+        int idx = 0;
         for (int col = 0; col < nrOfCols; col++) {
             for (int row = 0; row < nrOfRows; row++) {
-                inner[row][col] = rand.nextRandom(q);
+                if (words != null) {
+                    words[idx++] = rand.nextRandom(q).longValue();
+                } else {
+                    inner[idx++] = rand.nextRandom(q);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates matrix with given dimensions - all entries are random values mod q, drawn from the sampler.
+     * Whenever the entries can be stored as words, they are sampled in bulk straight into the word array.
+     *
+     * @param nrOfRows number of rows
+     * @param nrOfCols number of columns
+     * @param sampler  sampler of the values
+     * @param q        is the biggest allowed number (All calculations are mod q)
+     */
+    public Matrix(int nrOfRows, int nrOfCols, Sampler sampler, BigInteger q) {
+        this(nrOfRows, nrOfCols,
+                WordArithmetic.fits(q) ? null : new BigInteger[nrOfRows * nrOfCols],
+                WordArithmetic.fits(q) ? new long[nrOfRows * nrOfCols] : null,
+                WordArithmetic.fits(q) ? q : null,
+                0, 1, nrOfRows);
+
+        if (words != null) {
+            sampler.fill(words, q);
+        } else {
+            for (int i = 0; i < inner.length; i++) {
+                inner[i] = sampler.next(q);
             }
         }
     }
 
-    public static Matrix decompose(BigInteger x, int len) {
-        BigInteger[][] inner = new BigInteger[len][1];
+    /**
+     * Full constructor. Subclasses keeping the entries in a representation of their own pass null for both
+     * <code>inner</code> and <code>words</code>, and override the methods reading the entries.
+     */
+    Matrix(int nrOfRows, int nrOfCols, BigInteger[] inner, long[] words, BigInteger bound,
+           int offset, int rowStride, int colStride) {
+        this.nrOfRows = nrOfRows;
+        this.nrOfCols = nrOfCols;
+        this.inner = inner;
+        this.words = words;
+        this.bound = bound;
+        this.offset = offset;
+        this.rowStride = rowStride;
+        this.colStride = colStride;
+    }
+
+    /**
+     * Creates a matrix on words, stored in row-major layout
+     *
+     * @param nrOfRows number of rows
+     * @param nrOfCols number of columns
+     * @param words    the entries - all must be in the range [0, bound)
+     * @param bound    exclusive upper bound on the entries
+     * @return the matrix
+     */
+    static Matrix rowMajor(int nrOfRows, int nrOfCols, long[] words, BigInteger bound) {
+        return new Matrix(nrOfRows, nrOfCols, null, words, bound, 0, nrOfCols, 1);
+    }
+
+    /**
+     * Creates a matrix on words, stored in column-major layout
+     *
+     * @param nrOfRows number of rows
+     * @param nrOfCols number of columns
+     * @param words    the entries - all must be in the range [0, bound)
+     * @param bound    exclusive upper bound on the entries
+     * @return the matrix
+     */
+    static Matrix columnMajor(int nrOfRows, int nrOfCols, long[] words, BigInteger bound) {
+        return new Matrix(nrOfRows, nrOfCols, null, words, bound, 0, 1, nrOfRows);
+    }
+
+    static Matrix rowMajor(int nrOfRows, int nrOfCols, BigInteger[] inner) {
+        return new Matrix(nrOfRows, nrOfCols, inner, null, null, 0, nrOfCols, 1);
+    }
+
+    public static BitMatrix decompose(BigInteger x, int len) {
+        BitMatrix res = new BitMatrix(len, 1);
 
         for (int i = 0; i < len; i++) {
-            BigInteger pow = BigInteger.valueOf(2).pow(i);
-            inner[i][0] = x.and(pow).equals(pow) ? BigInteger.ONE : BigInteger.ZERO;
+            if (x.testBit(i)) {
+                res.set(i, 0);
+            }
         }
 
-        return new Matrix(inner);
+        return res;
     }
 
     public int getRows() {
@@ -76,6 +183,15 @@ public class Matrix {
         return nrOfCols;
     }
 
+    /**
+     * @param row    the row
+     * @param column the column
+     * @return the position of the entry in the underlying array
+     */
+    private int index(int row, int column) {
+        return offset + row * rowStride + column * colStride;
+    }
+
     /**
      * Reads a value of the matrix
      *
@@ -84,7 +200,10 @@ public class Matrix {
      * @return the value
      */
     public BigInteger get(int row, int column) {
-        return inner[row][column];
+        if (words != null) {
+            return toBigInteger(words[index(row, column)]);
+        }
+        return inner[index(row, column)];
     }
 
     /**
@@ -92,7 +211,11 @@ public class Matrix {
      * @return the row as a BigInteger array
      */
     public BigInteger[] getRow(int row) {
-        return inner[row];
+        BigInteger[] res = new BigInteger[nrOfCols];
+        for (int col = 0; col < nrOfCols; col++) {
+            res[col] = get(row, col);
+        }
+        return res;
     }
 
     /**
@@ -106,20 +229,213 @@ public class Matrix {
         }
 
         if (nrOfRows == 1) {
-            return inner[0];
+            return getRow(0);
         }
 
         BigInteger[] res = new BigInteger[nrOfRows];
 
         for (int row = 0; row < nrOfRows; row++) {
-            res[row] = inner[row][0];
+            res[row] = get(row, 0);
         }
 
         return res;
     }
 
+    /**
+     * @return whether all entries are known to be either zero or one
+     */
+    boolean isBinary() {
+        return words != null && bound.compareTo(TWO) <= 0;
+    }
+
+    /**
+     * @param columnMajor whether to check for column-major, or row-major layout
+     * @return whether the entries are stored contiguously from index 0, in the given layout, and fill the backing
+     * array exactly
+     */
+    private boolean isCompact(boolean columnMajor) {
+        int expectedRowStride = columnMajor ? 1 : nrOfCols;
+        int expectedColStride = columnMajor ? nrOfRows : 1;
+        int length = words != null ? words.length : inner.length;
+        return offset == 0 && length == (long) nrOfRows * nrOfCols
+                && (nrOfRows == 1 || rowStride == expectedRowStride)
+                && (nrOfCols == 1 || colStride == expectedColStride);
+    }
+
+    /**
+     * @return whether this matrix is laid out in column-major order
+     */
+    private boolean isColumnMajor() {
+        return nrOfCols > 1 ? colStride != 1 : rowStride == 1;
+    }
+
+    /**
+     * Returns the entries as words, reduced mod q, in the requested contiguous layout.
+     * <br/>
+     * If the matrix already is represented that way, the inner representation is returned
+     *
+     * @param arithmetic  arithmetic mod q
+     * @param q           the modulus
+     * @param columnMajor whether the layout should be column-major, or row-major
+     * @return the entries mod q, as longs
+     */
+    long[] wordsModulo(WordArithmetic arithmetic, BigInteger q, boolean columnMajor) {
+        boolean reduced = words != null && bound.compareTo(q) <= 0;
+        if (reduced && isCompact(columnMajor)) {
+            return words;
+        }
+
+        long[] res = new long[nrOfRows * nrOfCols];
+        int idx = 0;
+        int outer = columnMajor ? nrOfCols : nrOfRows;
+        int innerLength = columnMajor ? nrOfRows : nrOfCols;
+        for (int i = 0; i < outer; i++) {
+            for (int j = 0; j < innerLength; j++) {
+                int position = columnMajor ? index(j, i) : index(i, j);
+                if (reduced) {
+                    res[idx++] = words[position];
+                } else if (words != null) {
+                    res[idx++] = arithmetic.reduce(words[position]);
+                } else {
+                    res[idx++] = inner[position].mod(q).longValue();
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @param array array returned by {@link #wordsModulo(WordArithmetic, BigInteger, boolean)} or
+     *              {@link #bigIntegers(boolean)}
+     * @return whether the array is the inner representation of this matrix, and must be copied before it is modified
+     */
+    boolean isBackedBy(Object array) {
+        return array == words || array == inner;
+    }
+
+    /**
+     * Reduces every entry mod the modulo parameter
+     * <br/>
+     * The result is stored contiguously, as primitive words when the modulo allows it,
+     * such that later products with it need no conversion
+     *
+     * @param modulo the modulo for the group
+     * @return this matrix mod <i>modulo</i>
+     */
+    public Matrix reduce(BigInteger modulo) {
+        WordArithmetic arithmetic = WordArithmetic.forModulus(modulo);
+        if (arithmetic != null) {
+            return rowMajor(nrOfRows, nrOfCols, wordsModulo(arithmetic, modulo, false), modulo);
+        }
+
+        BigInteger[] res = bigIntegers(false).clone();
+        for (int i = 0; i < res.length; i++) {
+            res[i] = res[i].mod(modulo);
+        }
+        return rowMajor(nrOfRows, nrOfCols, res);
+    }
+
+    /**
+     * @param q a modulus
+     * @return whether entries mod q are held as primitive words - that is, q fits in 63 bits, or is a power of two
+     * of at most 2^64
+     */
+    public static boolean fitsInWords(BigInteger q) {
+        return WordArithmetic.fits(q);
+    }
+
+    /**
+     * @param modulo the modulo for the group - must fit in 63 bits, or be a power of two of at most 2^64
+     * @return the entries mod <i>modulo</i> as unsigned words, in row-major order
+     */
+    public long[] toWords(BigInteger modulo) {
+        WordArithmetic arithmetic = WordArithmetic.forModulus(modulo);
+        if (arithmetic == null) {
+            throw new IllegalArgumentException("Entries mod q=" + modulo + " do not fit in words");
+        }
+        long[] res = wordsModulo(arithmetic, modulo, false);
+        return res == words ? res.clone() : res;
+    }
+
+    /**
+     * Creates a matrix from words in row-major order
+     *
+     * @param nrOfRows number of rows
+     * @param nrOfCols number of columns
+     * @param words    the entries as unsigned words - all must be below modulo
+     * @param modulo   the modulo for the group - must fit in 63 bits, or be a power of two of at most 2^64
+     * @return the matrix
+     */
+    public static Matrix fromWords(int nrOfRows, int nrOfCols, long[] words, BigInteger modulo) {
+        WordArithmetic arithmetic = WordArithmetic.forModulus(modulo);
+        if (arithmetic == null || words.length != (long) nrOfRows * nrOfCols) {
+            throw new IllegalArgumentException("Unable to create " + nrOfRows + "x" + nrOfCols +
+                    " matrix mod q=" + modulo + " from " + words.length + " words");
+        }
+        if (arithmetic.q != 0) {//Every word is below 2^64
+            for (long word : words) {
+                if (Long.compareUnsigned(word, arithmetic.q) >= 0) {
+                    throw new IllegalArgumentException("Entry " + Long.toUnsignedString(word) +
+                            " is not below q=" + modulo);
+                }
+            }
+        }
+        return rowMajor(nrOfRows, nrOfCols, words.clone(), modulo);
+    }
+
+    /**
+     * Creates a matrix from entries in row-major order
+     *
+     * @param nrOfRows number of rows
+     * @param nrOfCols number of columns
+     * @param entries  the entries
+     * @return the matrix
+     */
+    public static Matrix fromEntries(int nrOfRows, int nrOfCols, BigInteger[] entries) {
+        if (entries.length != (long) nrOfRows * nrOfCols) {
+            throw new IllegalArgumentException("Unable to create " + nrOfRows + "x" + nrOfCols + " matrix from " +
+                    entries.length + " entries");
+        }
+        return rowMajor(nrOfRows, nrOfCols, entries.clone());
+    }
+
+    /**
+     * @param columnMajor whether the layout should be column-major, or row-major
+     * @return the entries as BigIntegers, in the requested contiguous layout
+     */
+    BigInteger[] bigIntegers(boolean columnMajor) {
+        if (inner != null && isCompact(columnMajor)) {
+            return inner;
+        }
+
+        BigInteger[] res = new BigInteger[nrOfRows * nrOfCols];
+        int idx = 0;
+        int outer = columnMajor ? nrOfCols : nrOfRows;
+        int innerLength = columnMajor ? nrOfRows : nrOfCols;
+        for (int i = 0; i < outer; i++) {
+            for (int j = 0; j < innerLength; j++) {
+                res[idx++] = columnMajor ? get(j, i) : get(i, j);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @param word entry, interpreted as unsigned
+     * @return the entry as a BigInteger
+     */
+    static BigInteger toBigInteger(long word) {
+        if (word >= 0) {
+            return BigInteger.valueOf(word);
+        }
+        return BigInteger.valueOf(word >>> 1).shiftLeft(1).or(BigInteger.valueOf(word & 1));
+    }
+
     /**
      * Does matrix multiplication, mod the modulo parameter
+     * <br/>
+     * The left-hand matrix is read in row-major, and the right-hand in column-major layout,
+     * such that every inner product streams linearly through memory
      *
      * @param b      right-hand matrix
      * @param modulo the modulo for the group
@@ -133,70 +449,340 @@ public class Matrix {
         }
         Matrix a = this;
 
-        int m = a.nrOfRows;
-        int p = b.nrOfCols;
-
-        final BigInteger[][] result = new BigInteger[m][p];
+        final int m = a.nrOfRows;
+        final int n = a.nrOfCols;
+        final int p = b.nrOfCols;
 
-        //Compute the resulting row, using a parallel stream to properly utilize multi-core CPU
-        IntStream range = IntStream.range(0, m);
+        //Split the work on the rows of the result, using a parallel stream to properly utilize multi-core CPU.
+        //When there are too few rows to occupy every core, as for a vector times a matrix, split on the columns instead
+        final boolean byColumn = m < Math.max(2, ForkJoinPool.getCommonPoolParallelism());
+        IntStream range = IntStream.range(0, byColumn ? p : m);
         if (concurrent) {
             range = range.parallel();
         }
-        range.forEach(computeRowMultiplication(result, a, b, modulo));
 
-        return new Matrix(result);
+        WordArithmetic arithmetic = WordArithmetic.forModulus(modulo);
+        if (arithmetic != null) {
+            final long[] result = new long[m * p];
+            final long[] aWords = a.wordsModulo(arithmetic, modulo, false);
+            if (b instanceof BitMatrix) {
+                final long[] packed = ((BitMatrix) b).packed();
+                final int wordsPerColumn = ((BitMatrix) b).wordsPerColumn();
+                range.forEach(partition(byColumn, m, p, (row, col) -> result[row * p + col] =
+                        arithmetic.packedBinaryDot(aWords, row * n, packed, col * wordsPerColumn, n)));
+                return rowMajor(m, p, result, modulo);
+            }
+            final long[] bWords = b.wordsModulo(arithmetic, modulo, true);
+
+            Tiling tiling = Tiling.forDimensions(m, n, p);
+            if (b.isBinary()) {
+                //Every product is a masked add
+                range.forEach(partition(byColumn, m, p, (row, col) -> result[row * p + col] =
+                        arithmetic.binaryDot(aWords, row * n, bWords, col * n, n)));
+            } else if (tiled && !byColumn && !tiling.coversWhole(n, p)) {
+                IntStream blocks = IntStream.range(0, (m + tiling.rows - 1) / tiling.rows);
+                if (concurrent) {
+                    blocks = blocks.parallel();
+                }
+                blocks.forEach(computeTileMultiplication(result, aWords, bWords, m, n, p, tiling, arithmetic));
+            } else {
+                range.forEach(partition(byColumn, m, p, (row, col) -> result[row * p + col] =
+                        arithmetic.dot(aWords, row * n, bWords, col * n, n)));
+            }
+            return rowMajor(m, p, result, modulo);
+        }
+
+        final BigInteger[] result = new BigInteger[m * p];
+        final BigInteger[] aInner = a.bigIntegers(false);
+        final BigInteger[] bInner = b.bigIntegers(true);
+        range.forEach(partition(byColumn, m, p, (row, col) -> {
+            BigInteger partial = BigInteger.ZERO;
+            for (int i = 0; i < n; i++) {
+                partial = partial.add(aInner[row * n + i].multiply(bInner[col * n + i]));
+            }
+            result[row * p + col] = partial.mod(modulo);
+        }));
+
+        return rowMajor(m, p, result);
     }
 
     /**
-     * Multiplies matrix with a constant c
+     * Computes selected columns of the product of this matrix and b, mod the modulo parameter
+     * <br/>
+     * Only the inner products for the selected columns are computed, reading b in place
      *
-     * @param c      the constant
-     * @param modulo the modulo
-     * @return new matrix which is this * c
+     * @param b       right-hand matrix
+     * @param columns indices of the columns of the product to compute
+     * @param modulo  the modulo for the group
+     * @return matrix with the selected columns of this X B mod <i>modulo</i>, in the given order
      */
-    public Matrix multiply(BigInteger c, BigInteger modulo) {
-        Stream<BigInteger[]> stream = Arrays.stream(inner);
-        if (concurrent) {
-            stream = stream.parallel();
+    public Matrix multiplyColumns(Matrix b, int[] columns, BigInteger modulo) {
+        if (nrOfCols != b.nrOfRows) {
+            throw new MalformedMatrixException("Matrix with dimensions " + nrOfRows + "x" + nrOfCols +
+                    " cannot be multiplied with matrix with dimensions " + b.nrOfRows + "x" + b.nrOfCols);
+        }
+        for (int column : columns) {
+            if (column < 0 || column >= b.nrOfCols) {
+                throw new MalformedMatrixException("Column " + column + " is outside matrix with " + b.nrOfCols +
+                        " columns");
+            }
         }
 
-        BigInteger[][] res = stream.map(r -> rowMultiplyConstant(r, c, modulo)).toArray(BigInteger[][]::new);
+        final int m = nrOfRows;
+        final int n = nrOfCols;
+        WordArithmetic arithmetic = WordArithmetic.forModulus(modulo);
+        if (arithmetic != null) {
+            long[] aWords = wordsModulo(arithmetic, modulo, false);
+            long[] bColumns = new long[n * columns.length];
+            b.copyColumns(columns, modulo, bColumns, 0);
+            long[] res = new long[m * columns.length];
+            for (int row = 0; row < m; row++) {
+                for (int j = 0; j < columns.length; j++) {
+                    res[row * columns.length + j] = arithmetic.dot(aWords, row * n, bColumns, j * n, n);
+                }
+            }
+            return rowMajor(m, columns.length, res, modulo);
+        }
 
-        return new Matrix(res);
+        BigInteger[] res = new BigInteger[m * columns.length];
+        for (int row = 0; row < m; row++) {
+            for (int j = 0; j < columns.length; j++) {
+                BigInteger partial = BigInteger.ZERO;
+                for (int i = 0; i < n; i++) {
+                    partial = partial.add(get(row, i).multiply(b.get(i, columns[j])));
+                }
+                res[row * columns.length + j] = partial.mod(modulo);
+            }
+        }
+        return rowMajor(m, columns.length, res);
     }
 
-    private BigInteger[] rowMultiplyConstant(BigInteger[] row, BigInteger c, BigInteger q) {
-        Stream<BigInteger> stream = Arrays.stream(row);
+    /**
+     * Places the selected columns of every matrix side by side, as [M1[columns] | M2[columns] | ...],
+     * with every entry reduced mod the modulo parameter
+     * <br/>
+     * The result is built in column-major layout, which is the layout a right-hand matrix is multiplied in
+     *
+     * @param matrices matrices with the same number of rows
+     * @param columns  indices of the columns to select from every matrix
+     * @param modulo   the modulo for the group
+     * @return matrix with <code>matrices.length * columns.length</code> columns
+     */
+    public static Matrix selectColumns(Matrix[] matrices, int[] columns, BigInteger modulo) {
+        final int rows = matrices.length == 0 ? 0 : matrices[0].nrOfRows;
+        for (Matrix matrix : matrices) {
+            if (matrix.nrOfRows != rows) {
+                throw new MalformedMatrixException("Matrix with " + matrix.nrOfRows +
+                        " rows cannot be placed next to matrix with " + rows + " rows");
+            }
+            for (int column : columns) {
+                if (column < 0 || column >= matrix.nrOfCols) {
+                    throw new MalformedMatrixException("Column " + column + " is outside matrix with " +
+                            matrix.nrOfCols + " columns");
+                }
+            }
+        }
+
+        final int width = matrices.length * columns.length;
+        //Only split the work if every matrix allows it
+        IntStream range = IntStream.range(0, matrices.length);
+        boolean concurrent = true;
+        for (Matrix matrix : matrices) {
+            concurrent &= matrix.concurrent;
+        }
         if (concurrent) {
-            stream = stream.parallel();
+            range = range.parallel();
+        }
+
+        WordArithmetic arithmetic = WordArithmetic.forModulus(modulo);
+        if (arithmetic != null) {
+            long[] res = new long[rows * width];
+            range.forEach(m -> matrices[m].copyColumns(columns, modulo, res, m * columns.length * rows));
+            return columnMajor(rows, width, res, modulo);
         }
-        return stream.map(v -> v.multiply(c).mod(q)).toArray(BigInteger[]::new);
+
+        BigInteger[] res = new BigInteger[rows * width];
+        range.forEach(m -> {
+            for (int j = 0; j < columns.length; j++) {
+                int col = m * columns.length + j;
+                for (int row = 0; row < rows; row++) {
+                    res[row * width + col] = matrices[m].get(row, columns[j]).mod(modulo);
+                }
+            }
+        });
+        return rowMajor(rows, width, res);
     }
 
     /**
-     * Builds an {@link IntConsumer} which computes a row of the resulting matrix, used in matrix multiplication
+     * Copies the selected columns, reduced mod the modulo parameter, to consecutive column-major positions
      *
-     * @param res    the matrix to write the resulting row to
-     * @param a      matrix a from the multiplication
-     * @param b      matrix b from he multiplication
-     * @param modulo the modulo for the multiplication
-     * @return an intConsumer for computing multiplication for a given row
-     */
-    @SuppressWarnings("UnnecessaryLocalVariable")
-    private IntConsumer computeRowMultiplication(final BigInteger[][] res, final Matrix a, final Matrix b, final BigInteger modulo) {
-        final int n = b.nrOfRows;
-        final int p = b.nrOfCols;
+     * @param columns indices of the columns to copy
+     * @param modulo  the modulo for the group - must fit in words
+     * @param res     array to copy to
+     * @param offset  index in <i>res</i> of the first entry of the first column
+     */
+    void copyColumns(int[] columns, BigInteger modulo, long[] res, int offset) {
+        boolean reduced = words != null && bound.compareTo(modulo) <= 0;
+        for (int j = 0; j < columns.length; j++) {
+            int position = offset + j * nrOfRows;
+            for (int row = 0; row < nrOfRows; row++) {
+                res[position + row] = reduced
+                        ? words[index(row, columns[j])]
+                        : get(row, columns[j]).mod(modulo).longValue();
+            }
+        }
+    }
+
+    /**
+     * Places the matrices on top of each other, with every entry reduced mod the modulo parameter
+     *
+     * @param blocks matrices with the same number of columns
+     * @param modulo the modulo for the group
+     * @return matrix with the rows of every block, in order
+     */
+    public static Matrix stackRows(Matrix[] blocks, BigInteger modulo) {
+        final int cols = blocks.length == 0 ? 0 : blocks[0].nrOfCols;
+        int rows = 0;
+        for (Matrix block : blocks) {
+            if (block.nrOfCols != cols) {
+                throw new MalformedMatrixException("Matrix with " + block.nrOfCols +
+                        " columns cannot be placed below matrix with " + cols + " columns");
+            }
+            rows += block.nrOfRows;
+        }
+
+        WordArithmetic arithmetic = WordArithmetic.forModulus(modulo);
+        if (arithmetic != null) {
+            long[] res = new long[rows * cols];
+            int position = 0;
+            for (Matrix block : blocks) {
+                long[] blockWords = block.wordsModulo(arithmetic, modulo, false);
+                System.arraycopy(blockWords, 0, res, position, blockWords.length);
+                position += blockWords.length;
+            }
+            return rowMajor(rows, cols, res, modulo);
+        }
+
+        BigInteger[] res = new BigInteger[rows * cols];
+        int position = 0;
+        for (Matrix block : blocks) {
+            for (BigInteger value : block.bigIntegers(false)) {
+                res[position++] = value.mod(modulo);
+            }
+        }
+        return rowMajor(rows, cols, res);
+    }
+
+    /**
+     * Builds an {@link IntConsumer} which computes either a row, or a column, of the result of a multiplication.
+     * The left-hand matrix is read in row-major, and the right-hand in column-major layout.
+     *
+     * @param byColumn whether the consumer is given columns, or rows
+     * @param m        number of rows in the result
+     * @param p        number of columns in the result
+     * @param entry    computes a single entry of the result
+     * @return an intConsumer for computing multiplication for a given row, or column
+     */
+    private static IntConsumer partition(boolean byColumn, int m, int p, EntryComputation entry) {
+        if (byColumn) {
+            return col -> {
+                for (int row = 0; row < m; row++) {
+                    entry.compute(row, col);
+                }
+            };
+        }
         return row -> {
             for (int col = 0; col < p; col++) {
-                BigInteger partial = BigInteger.ZERO;
+                entry.compute(row, col);
+            }
+        };
+    }
 
-                for (int i = 0; i < n; i++) {
-                    BigInteger aVal = a.get(row, i);
-                    BigInteger bVal = b.get(i, col);
-                    partial = partial.add(aVal.multiply(bVal));
+    /**
+     * Multiplies matrix with a constant c
+     *
+     * @param c      the constant
+     * @param modulo the modulo
+     * @return new matrix which is this * c
+     */
+    public Matrix multiply(BigInteger c, BigInteger modulo) {
+        boolean columnMajor = isColumnMajor();
+        WordArithmetic arithmetic = WordArithmetic.forModulus(modulo);
+        if (arithmetic != null) {
+            long[] a = wordsModulo(arithmetic, modulo, columnMajor);
+            long cWord = c.mod(modulo).longValue();
+
+            long[] res = new long[a.length];
+            lines(columnMajor).forEach(line -> {
+                int from = line * lineLength(columnMajor);
+                for (int i = from; i < from + lineLength(columnMajor); i++) {
+                    res[i] = arithmetic.multiply(a[i], cWord);
+                }
+            });
+            return withLayout(res, modulo, columnMajor);
+        }
+
+        BigInteger[] a = bigIntegers(columnMajor);
+        BigInteger[] res = new BigInteger[a.length];
+        lines(columnMajor).forEach(line -> {
+            int from = line * lineLength(columnMajor);
+            for (int i = from; i < from + lineLength(columnMajor); i++) {
+                res[i] = a[i].multiply(c).mod(modulo);
+            }
+        });
+
+        return withLayout(res, columnMajor);
+    }
+
+    /**
+     * Builds an {@link IntConsumer} which computes a block of rows of the resulting matrix, on matrices represented
+     * as longs.
+     * <br/>
+     * The block is computed one tile of the right-hand matrix at a time, such that the tile stays in cache while it
+     * is used for every row in the block. Inner products are split in segments of the tile depth, which are reduced
+     * and summed, and are computed four columns at a time.
+     *
+     * @param res        the row-major array to write the resulting rows to
+     * @param a          row-major entries of matrix a from the multiplication
+     * @param b          column-major entries of matrix b from he multiplication
+     * @param m          number of rows in a
+     * @param n          number of columns in a, and rows in b
+     * @param p          number of columns in b
+     * @param tiling     the block sizes
+     * @param arithmetic the arithmetic for the modulo of the multiplication
+     * @return an intConsumer for computing multiplication for a given block of rows
+     */
+    private IntConsumer computeTileMultiplication(final long[] res, final long[] a, final long[] b,
+                                                  final int m, final int n, final int p,
+                                                  final Tiling tiling, final WordArithmetic arithmetic) {
+        return block -> {
+            final long[] partials = new long[4];
+            final int rowFrom = block * tiling.rows;
+            final int rowTo = Math.min(m, rowFrom + tiling.rows);
+            for (int depthFrom = 0; depthFrom < n; depthFrom += tiling.depth) {
+                final int length = Math.min(tiling.depth, n - depthFrom);
+                for (int colFrom = 0; colFrom < p; colFrom += tiling.columns) {
+                    final int colTo = Math.min(p, colFrom + tiling.columns);
+                    for (int row = rowFrom; row < rowTo; row++) {
+                        final int aOffset = row * n + depthFrom;
+                        final int resOffset = row * p;
+                        int col = colFrom;
+                        for (; col + 4 <= colTo; col += 4) {
+                            arithmetic.dot4(a, aOffset, b, col * n + depthFrom, n, length, partials, 0);
+                            for (int i = 0; i < 4; i++) {
+                                res[resOffset + col + i] = depthFrom == 0
+                                        ? partials[i]
+                                        : arithmetic.add(res[resOffset + col + i], partials[i]);
+                            }
+                        }
+                        for (; col < colTo; col++) {
+                            long partial = arithmetic.dot(a, aOffset, b, col * n + depthFrom, length);
+                            res[resOffset + col] = depthFrom == 0
+                                    ? partial
+                                    : arithmetic.add(res[resOffset + col], partial);
+                        }
+                    }
                 }
-                res[row][col] = partial.mod(modulo);
             }
         };
     }
@@ -216,33 +802,32 @@ public class Matrix {
                     " cannot be added to matrix with dimensions " + b.nrOfRows + "x" + b.nrOfCols);
         }
 
-        IntStream outerStream = IntStream.range(0, a.getRows());
-        if (concurrent) {
-            outerStream = outerStream.parallel();
+        boolean columnMajor = isColumnMajor();
+        WordArithmetic arithmetic = WordArithmetic.forModulus(modulo);
+        if (arithmetic != null) {
+            long[] aWords = a.wordsModulo(arithmetic, modulo, columnMajor);
+            long[] bWords = b.wordsModulo(arithmetic, modulo, columnMajor);
+            long[] res = new long[aWords.length];
+            lines(columnMajor).forEach(line -> {
+                int from = line * lineLength(columnMajor);
+                for (int i = from; i < from + lineLength(columnMajor); i++) {
+                    res[i] = arithmetic.add(aWords[i], bWords[i]);
+                }
+            });
+            return withLayout(res, modulo, columnMajor);
         }
 
-        BigInteger[][] res = outerStream
-                .mapToObj(i -> rowAddition(a.getRow(i), b.getRow(i), modulo))
-                .toArray(BigInteger[][]::new);
-
-        return new Matrix(res);
-    }
-
-    /**
-     * Computes entry-wise addition
-     *
-     * @param leftRow  left row to add
-     * @param rightRow right row to add
-     * @param q        modulus
-     * @return entrywise addition
-     */
-    private BigInteger[] rowAddition(BigInteger[] leftRow, BigInteger[] rightRow, BigInteger q) {
-        IntStream range = IntStream.range(0, leftRow.length);
-        if (concurrent) {
-            range = range.parallel();
-        }
+        BigInteger[] aInner = a.bigIntegers(columnMajor);
+        BigInteger[] bInner = b.bigIntegers(columnMajor);
+        BigInteger[] res = new BigInteger[aInner.length];
+        lines(columnMajor).forEach(line -> {
+            int from = line * lineLength(columnMajor);
+            for (int i = from; i < from + lineLength(columnMajor); i++) {
+                res[i] = aInner[i].add(bInner[i]).mod(modulo);
+            }
+        });
 
-        return range.mapToObj(i -> leftRow[i].add(rightRow[i]).mod(q)).toArray(BigInteger[]::new);
+        return withLayout(res, columnMajor);
     }
 
     /**
@@ -260,17 +845,29 @@ public class Matrix {
                     " cannot be subtracted from matrix with dimensions " + b.nrOfRows + "x" + b.nrOfCols);
         }
 
-        BigInteger[][] res = new BigInteger[a.nrOfRows][a.nrOfCols];
+        boolean columnMajor = isColumnMajor();
+        WordArithmetic arithmetic = WordArithmetic.forModulus(modulo);
+        if (arithmetic != null) {
+            long[] aWords = a.wordsModulo(arithmetic, modulo, columnMajor);
+            long[] bWords = b.wordsModulo(arithmetic, modulo, columnMajor);
+            long[] res = new long[aWords.length];
 
-        for (int row = 0; row < a.getRows(); row++) {
-            for (int column = 0; column < a.getColumns(); column++) {
-                BigInteger aVal = a.get(row, column);
-                BigInteger bVal = b.get(row, column);
-                res[row][column] = aVal.subtract(bVal).mod(modulo);
+            for (int i = 0; i < res.length; i++) {
+                res[i] = arithmetic.subtract(aWords[i], bWords[i]);
             }
+
+            return withLayout(res, modulo, columnMajor);
+        }
+
+        BigInteger[] aInner = a.bigIntegers(columnMajor);
+        BigInteger[] bInner = b.bigIntegers(columnMajor);
+        BigInteger[] res = new BigInteger[aInner.length];
+
+        for (int i = 0; i < res.length; i++) {
+            res[i] = aInner[i].subtract(bInner[i]).mod(modulo);
         }
 
-        return new Matrix(res);
+        return withLayout(res, columnMajor);
     }
 
     /**
@@ -284,13 +881,25 @@ public class Matrix {
             throw new MalformedMatrixException("New row must have the same length as the matrix has columns");
         }
 
-        BigInteger[][] res = new BigInteger[nrOfRows + 1][nrOfCols];
-        for (int i = 0; i < nrOfRows; i++) {
-            res[i] = Arrays.copyOf(inner[i], nrOfCols);
+        if (words != null && withinBound(newRow)) {
+            long[] res = new long[(nrOfRows + 1) * nrOfCols];
+            for (int row = 0; row < nrOfRows; row++) {
+                for (int col = 0; col < nrOfCols; col++) {
+                    res[row * nrOfCols + col] = words[index(row, col)];
+                }
+            }
+            for (int col = 0; col < nrOfCols; col++) {
+                res[nrOfRows * nrOfCols + col] = newRow[col].longValue();
+            }
+
+            return rowMajor(nrOfRows + 1, nrOfCols, res, bound);
         }
-        res[nrOfRows] = Arrays.copyOf(newRow, nrOfCols);
 
-        return new Matrix(res);
+        BigInteger[] res = new BigInteger[(nrOfRows + 1) * nrOfCols];
+        System.arraycopy(bigIntegers(false), 0, res, 0, nrOfRows * nrOfCols);
+        System.arraycopy(newRow, 0, res, nrOfRows * nrOfCols, nrOfCols);
+
+        return rowMajor(nrOfRows + 1, nrOfCols, res);
     }
 
     /**
@@ -304,45 +913,119 @@ public class Matrix {
             throw new MalformedMatrixException("New column must have the same length as the matrix has rows");
         }
 
-        BigInteger[][] res = new BigInteger[nrOfRows][nrOfCols + 1];
-        for (int i = 0; i < nrOfRows; i++) {
-            res[i] = Arrays.copyOf(inner[i], nrOfCols + 1);
-            res[i][nrOfCols] = newColumn[i];
+        if (words != null && withinBound(newColumn)) {
+            long[] res = new long[nrOfRows * (nrOfCols + 1)];
+            for (int col = 0; col < nrOfCols; col++) {
+                for (int row = 0; row < nrOfRows; row++) {
+                    res[col * nrOfRows + row] = words[index(row, col)];
+                }
+            }
+            for (int row = 0; row < nrOfRows; row++) {
+                res[nrOfCols * nrOfRows + row] = newColumn[row].longValue();
+            }
+
+            return columnMajor(nrOfRows, nrOfCols + 1, res, bound);
         }
 
-        return new Matrix(res);
+        BigInteger[] res = new BigInteger[nrOfRows * (nrOfCols + 1)];
+        System.arraycopy(bigIntegers(true), 0, res, 0, nrOfRows * nrOfCols);
+        System.arraycopy(newColumn, 0, res, nrOfRows * nrOfCols, nrOfRows);
+
+        return new Matrix(nrOfRows, nrOfCols + 1, res, null, null, 0, 1, nrOfRows);
+    }
+
+    /**
+     * @param values values to check
+     * @return whether all values can be stored alongside the word-entries of this matrix
+     */
+    private boolean withinBound(BigInteger[] values) {
+        for (BigInteger value : values) {
+            if (value.signum() < 0 || value.compareTo(bound) >= 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public Matrix negate(BigInteger q) {
-        Stream<BigInteger[]> stream = Arrays.stream(inner);
-        if (concurrent) {
-            stream = stream.parallel();
+        boolean columnMajor = isColumnMajor();
+        WordArithmetic arithmetic = WordArithmetic.forModulus(q);
+        if (arithmetic != null) {
+            long[] a = wordsModulo(arithmetic, q, columnMajor);
+            long[] res = new long[a.length];
+            lines(columnMajor).forEach(line -> {
+                int from = line * lineLength(columnMajor);
+                for (int i = from; i < from + lineLength(columnMajor); i++) {
+                    res[i] = arithmetic.negate(a[i]);
+                }
+            });
+            return withLayout(res, q, columnMajor);
         }
 
-        BigInteger[][] res = stream.map(r -> negateRow(r, q)).toArray(BigInteger[][]::new);
-        return new Matrix(res);
+        BigInteger[] a = bigIntegers(columnMajor);
+        BigInteger[] res = new BigInteger[a.length];
+        lines(columnMajor).forEach(line -> {
+            int from = line * lineLength(columnMajor);
+            for (int i = from; i < from + lineLength(columnMajor); i++) {
+                res[i] = a[i].negate().mod(q);
+            }
+        });
+        return withLayout(res, columnMajor);
     }
 
-    private BigInteger[] negateRow(BigInteger[] row, BigInteger q) {
-        Stream<BigInteger> stream = Arrays.stream(row);
+    /**
+     * @param columnMajor whether the layout is column-major, or row-major
+     * @return stream over the indices of the rows, or columns, of a contiguous layout.
+     * The stream is parallel if concurrency is enabled
+     */
+    private IntStream lines(boolean columnMajor) {
+        IntStream range = IntStream.range(0, columnMajor ? nrOfCols : nrOfRows);
         if (concurrent) {
-            stream = stream.parallel();
+            range = range.parallel();
         }
-        return stream.map(BigInteger::negate)
-                .map(i -> i.mod(q))
-                .toArray(BigInteger[]::new);
+        return range;
     }
 
-    public Matrix transpose() {
-        BigInteger[][] res = new BigInteger[nrOfCols][nrOfRows];
+    /**
+     * @param columnMajor whether the layout is column-major, or row-major
+     * @return length of a single row, or column, in a contiguous layout
+     */
+    private int lineLength(boolean columnMajor) {
+        return columnMajor ? nrOfRows : nrOfCols;
+    }
 
-        for (int row = 0; row < nrOfCols; row++) {
-            for (int col = 0; col < getRows(); col++) {
-                res[row][col] = inner[col][row];
-            }
+    private Matrix withLayout(long[] res, BigInteger bound, boolean columnMajor) {
+        return columnMajor ? columnMajor(nrOfRows, nrOfCols, res, bound) : rowMajor(nrOfRows, nrOfCols, res, bound);
+    }
+
+    private Matrix withLayout(BigInteger[] res, boolean columnMajor) {
+        return columnMajor
+                ? new Matrix(nrOfRows, nrOfCols, res, null, null, 0, 1, nrOfRows)
+                : rowMajor(nrOfRows, nrOfCols, res);
+    }
+
+    /**
+     * Selects a range of consecutive columns, sharing the entries with this matrix
+     *
+     * @param from first column in the range, inclusive
+     * @param to   last column in the range, exclusive
+     * @return the columns <code>[from, to)</code> of this matrix
+     */
+    public Matrix columnRange(int from, int to) {
+        if (from < 0 || to > nrOfCols || from > to) {
+            throw new MalformedMatrixException("Columns [" + from + ", " + to + ") are outside matrix with " +
+                    nrOfCols + " columns");
         }
+        return new Matrix(nrOfRows, to - from, inner, words, bound, offset + from * colStride, rowStride, colStride);
+    }
 
-        return new Matrix(res);
+    /**
+     * Transposes the matrix, which shares its entries with this matrix
+     *
+     * @return the transpose of this matrix
+     */
+    public Matrix transpose() {
+        return new Matrix(nrOfCols, nrOfRows, inner, words, bound, offset, colStride, rowStride);
     }
 
     /**
@@ -354,10 +1037,20 @@ public class Matrix {
         concurrent = false;
     }
 
+    /**
+     * Disables cache-blocked multiplication for this matrix object, and this object only, when it is the left-hand
+     * side of a multiplication
+     * <br/>
+     * Tiling will not be disabled for new instances returned from methods on this.
+     */
+    public void disableTiling() {
+        tiled = false;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        if (!(o instanceof Matrix)) return false;
         Matrix matrix = (Matrix) o;
 
         if (nrOfCols != matrix.nrOfCols ||
@@ -365,9 +1058,15 @@ public class Matrix {
             return false;
         }
 
-        for (int i = 0; i < inner.length; i++) {
-            if (!Arrays.equals(inner[i], matrix.inner[i])) {
-                return false;
+        for (int row = 0; row < nrOfRows; row++) {
+            for (int col = 0; col < nrOfCols; col++) {
+                if (words != null && matrix.words != null) {
+                    if (words[index(row, col)] != matrix.words[matrix.index(row, col)]) {
+                        return false;
+                    }
+                } else if (!Objects.equals(get(row, col), matrix.get(row, col))) {
+                    return false;
+                }
             }
         }
 
@@ -376,8 +1075,12 @@ public class Matrix {
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(nrOfRows, nrOfCols, concurrent);
-        result = 31 * result + Arrays.hashCode(inner);
+        int result = Objects.hash(nrOfRows, nrOfCols);
+        for (int row = 0; row < nrOfRows; row++) {
+            for (int col = 0; col < nrOfCols; col++) {
+                result = 31 * result + Objects.hashCode(get(row, col));
+            }
+        }
         return result;
     }
 
@@ -385,8 +1088,15 @@ public class Matrix {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("[");
-        for (BigInteger[] bigIntegers : inner) {
-            sb.append(Arrays.toString(bigIntegers));
+        for (int row = 0; row < nrOfRows; row++) {
+            sb.append("[");
+            for (int col = 0; col < nrOfCols; col++) {
+                if (col > 0) {
+                    sb.append(", ");
+                }
+                sb.append(get(row, col));
+            }
+            sb.append("]");
         }
 
         sb.append("]");
@@ -397,6 +1107,13 @@ public class Matrix {
                 '}';
     }
 
+    /**
+     * Computes a single entry of the result of a multiplication, and writes it to the result
+     */
+    private interface EntryComputation {
+        void compute(int row, int col);
+    }
+
     /**
      * Provides random values, without promise of distribution
      */
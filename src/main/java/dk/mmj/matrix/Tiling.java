@@ -0,0 +1,49 @@
+package dk.mmj.matrix;
+
+/**
+ * Block sizes for cache-blocked matrix multiplication of an (m x n) matrix with an (n x p) matrix
+ * <br/>
+ * The block sizes are chosen such that a tile of the right-hand matrix, of <code>depth x columns</code> words,
+ * fits in the cache. The cache size can be tuned through the system property <code>dk.mmj.matrix.cacheWords</code>,
+ * which defaults to 32768 words (256KB - a typical L2 cache).
+ */
+final class Tiling {
+    private static final int CACHE_WORDS = Integer.getInteger("dk.mmj.matrix.cacheWords", 32 * 1024);
+    private static final int MAX_ROWS = Integer.getInteger("dk.mmj.matrix.tileRows", 32);
+    private static final int MAX_DEPTH = Integer.getInteger("dk.mmj.matrix.tileDepth", 512);
+    private static final int MIN_COLUMNS = 8;
+
+    final int rows;
+    final int columns;
+    final int depth;
+
+    Tiling(int rows, int columns, int depth) {
+        this.rows = rows;
+        this.columns = columns;
+        this.depth = depth;
+    }
+
+    /**
+     * Chooses block sizes from the dimensions of the multiplication
+     *
+     * @param m rows in the left-hand matrix
+     * @param n columns in the left-hand matrix, and rows in the right-hand matrix
+     * @param p columns in the right-hand matrix
+     * @return the block sizes to use
+     */
+    static Tiling forDimensions(int m, int n, int p) {
+        int depth = Math.max(1, Math.min(n, MAX_DEPTH));
+        int columns = Math.max(1, Math.min(p, Math.max(MIN_COLUMNS, CACHE_WORDS / depth)));
+        int rows = Math.max(1, Math.min(m, MAX_ROWS));
+        return new Tiling(rows, columns, depth);
+    }
+
+    /**
+     * @param n columns in the left-hand matrix, and rows in the right-hand matrix
+     * @param p columns in the right-hand matrix
+     * @return whether the whole right-hand matrix fits within a single tile, in which case tiling is pointless
+     */
+    boolean coversWhole(int n, int p) {
+        return depth >= n && columns >= p;
+    }
+}
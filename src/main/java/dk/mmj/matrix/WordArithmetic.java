@@ -0,0 +1,510 @@
+package dk.mmj.matrix;
+
+import java.math.BigInteger;
+
+/**
+ * Modular arithmetic on primitive longs, for moduli that fit in a single machine word
+ * <br/>
+ * All values handed to, and returned from, an instance are expected to be in the range [0, q).
+ * For q=2^64 values are interpreted as unsigned.
+ */
+abstract class WordArithmetic {
+    /**
+     * Largest bit-length of q for which products of two reduced values fit in a signed long
+     */
+    private static final int SMALL_MODULUS_BITS = 31;
+    /**
+     * The modulus - 0 if q=2^64
+     */
+    final long q;
+
+    WordArithmetic(long q) {
+        this.q = q;
+    }
+
+    /**
+     * Selects the arithmetic to use for the given modulus
+     *
+     * @param q the modulus
+     * @return arithmetic mod q, or null if q neither fits in 63 bits, nor is a power of two of at most 2^64
+     */
+    static WordArithmetic forModulus(BigInteger q) {
+        if (!fits(q)) {
+            return null;
+        }
+
+        long modulus = q.longValue();
+        if (isPowerOfTwo(q)) {
+            return new PowerOfTwo(modulus);
+        }
+        if (q.bitLength() <= SMALL_MODULUS_BITS) {
+            return new SmallModulus(modulus);
+        }
+        return new WordModulus(modulus);
+    }
+
+    /**
+     * @param q the modulus
+     * @return whether values mod q can be represented by {@link WordArithmetic}
+     */
+    static boolean fits(BigInteger q) {
+        return q.signum() > 0 && (q.bitLength() <= 63 || isPowerOfTwo(q) && q.bitLength() <= 65);
+    }
+
+    private static boolean isPowerOfTwo(BigInteger q) {
+        return q.bitCount() == 1;
+    }
+
+    /**
+     * @param v value, interpreted as unsigned - such as an entry mod 2^64
+     * @return v mod q
+     */
+    long reduce(long v) {
+        return Long.compareUnsigned(v, q) < 0 ? v : Long.remainderUnsigned(v, q);
+    }
+
+    long add(long a, long b) {
+        long res = a - (q - b);
+        return res < 0 ? res + q : res;
+    }
+
+    long subtract(long a, long b) {
+        long res = a - b;
+        return res < 0 ? res + q : res;
+    }
+
+    long negate(long a) {
+        return a == 0 ? 0 : q - a;
+    }
+
+    /**
+     * @return a * b mod q
+     */
+    abstract long multiply(long a, long b);
+
+    /**
+     * Computes the inner product between two contiguous vectors
+     *
+     * @param a       array holding the first vector
+     * @param aOffset index of the first entry of the first vector
+     * @param b       array holding the second vector
+     * @param bOffset index of the first entry of the second vector
+     * @param length  length of the vectors
+     * @return the inner product mod q
+     */
+    abstract long dot(long[] a, int aOffset, long[] b, int bOffset, int length);
+
+    /**
+     * Computes the inner product between a contiguous vector, and a contiguous vector of zeros and ones.
+     * <br/>
+     * Each product is a masked add, so no multiplication is performed
+     *
+     * @param a       array holding the first vector
+     * @param aOffset index of the first entry of the first vector
+     * @param bits    array holding the binary vector
+     * @param bOffset index of the first entry of the binary vector
+     * @param length  length of the vectors
+     * @return the inner product mod q
+     */
+    long binaryDot(long[] a, int aOffset, long[] bits, int bOffset, int length) {
+        long acc = 0;
+        for (int i = 0; i < length; i++) {
+            acc = add(acc, a[aOffset + i] & -bits[bOffset + i]);
+        }
+        return acc;
+    }
+
+    /**
+     * Computes the inner product between a contiguous vector, and a vector of zeros and ones packed 64 to a word,
+     * as in {@link BitMatrix}.
+     * <br/>
+     * Only the entries of the first vector matching a set bit are visited, each costing a single add
+     *
+     * @param a            array holding the first vector
+     * @param aOffset      index of the first entry of the first vector
+     * @param packed       array holding the packed binary vector
+     * @param packedOffset index of the first word of the packed binary vector
+     * @param length       length of the vectors
+     * @return the inner product mod q
+     */
+    long packedBinaryDot(long[] a, int aOffset, long[] packed, int packedOffset, int length) {
+        long acc = 0;
+        for (int w = 0; w * Long.SIZE < length; w++) {
+            long word = packed[packedOffset + w];
+            int from = aOffset + w * Long.SIZE;
+            while (word != 0) {
+                acc = add(acc, a[from + Long.numberOfTrailingZeros(word)]);
+                word &= word - 1;
+            }
+        }
+        return acc;
+    }
+
+    /**
+     * Computes the inner product between a contiguous vector, and the gadget decomposition of a contiguous vector.
+     * <br/>
+     * Digit <i>t</i> of value <i>r</i> is matched with entry <code>r*(digits-l) + t-l</code> of the first vector, such that
+     * this equals the inner product with the column of G^-1 holding the decomposition of the values, as described in
+     * {@link LWEUtils#digits(int, int)}. The decomposition is never materialised.
+     * For k=1 every digit is a bit, and only set bits are visited.
+     *
+     * @param a             array holding the first vector, of length <code>count*(digits-l)</code>
+     * @param aOffset       index of the first entry of the first vector
+     * @param values        array holding the values to decompose
+     * @param vOffset       index of the first value
+     * @param count         number of values
+     * @param bits          number of low bits of every value to decompose - at least 1, and at most 64
+     * @param digitBits     k, the number of bits in each digit
+     * @param droppedDigits l, the number of low-order digits left out of the decomposition
+     * @return the inner product mod q
+     */
+    long decomposedDot(long[] a, int aOffset, long[] values, int vOffset, int count, int bits, int digitBits,
+                       int droppedDigits) {
+        final int digits = LWEUtils.digits(bits, digitBits);
+        final int droppedBits = LWEUtils.gadgetExponent(droppedDigits, bits, digitBits);
+        final long bitMask = (bits < Long.SIZE ? (1L << bits) - 1 : -1L) & (-1L << droppedBits);
+        final long lowMask = (1L << (bits - 1)) - 1;
+        final long digitMask = digitBits < Long.SIZE ? (1L << digitBits) - 1 : -1L;
+        final int kept = digits - droppedDigits;
+        long acc = 0;
+        for (int r = 0; r < count; r++) {
+            long value = values[vOffset + r] & bitMask;
+            //Index of the entry matched with digit 0, which may be before aOffset when digits are dropped
+            int from = aOffset + r * kept - droppedDigits;
+            if (digitBits == 1) {
+                while (value != 0) {
+                    acc = add(acc, a[from + Long.numberOfTrailingZeros(value)]);
+                    value &= value - 1;
+                }
+            } else {
+                long low = value & lowMask;
+                for (int t = droppedDigits; t < digits - 1; t++) {
+                    long digit = (low >>> (t * digitBits)) & digitMask;
+                    if (digit != 0) {
+                        acc = add(acc, multiply(a[from + t], digit));
+                    }
+                }
+                if (value >>> (bits - 1) != 0) {
+                    acc = add(acc, a[from + digits - 1]);
+                }
+            }
+        }
+        return acc;
+    }
+
+    /**
+     * Computes four inner products at once, between one contiguous vector and four contiguous vectors placed
+     * <code>bStride</code> apart. Each entry of the first vector is loaded once for all four products.
+     *
+     * @param a         array holding the first vector
+     * @param aOffset   index of the first entry of the first vector
+     * @param b         array holding the four other vectors
+     * @param bOffset   index of the first entry of the first of the four other vectors
+     * @param bStride   distance between the starts of the four other vectors
+     * @param length    length of the vectors
+     * @param res       array to write the four inner products, mod q, to
+     * @param resOffset index to write the first inner product to
+     */
+    void dot4(long[] a, int aOffset, long[] b, int bOffset, int bStride, int length, long[] res, int resOffset) {
+        for (int i = 0; i < 4; i++) {
+            res[resOffset + i] = dot(a, aOffset, b, bOffset + i * bStride, length);
+        }
+    }
+
+    /**
+     * Arithmetic for q=2^k with k at most 64
+     * <br/>
+     * Values are accumulated using the native wraparound of longs, which is arithmetic mod 2^64,
+     * and reduced by a single bit mask. No division is ever performed.
+     */
+    private static class PowerOfTwo extends WordArithmetic {
+        private final long mask;
+
+        PowerOfTwo(long q) {
+            super(q);
+            this.mask = q - 1;
+        }
+
+        @Override
+        long reduce(long v) {
+            return v & mask;
+        }
+
+        @Override
+        long add(long a, long b) {
+            return (a + b) & mask;
+        }
+
+        @Override
+        long subtract(long a, long b) {
+            return (a - b) & mask;
+        }
+
+        @Override
+        long negate(long a) {
+            return -a & mask;
+        }
+
+        @Override
+        long multiply(long a, long b) {
+            return (a * b) & mask;
+        }
+
+        @Override
+        long dot(long[] a, int aOffset, long[] b, int bOffset, int length) {
+            long acc = 0;
+            for (int i = 0; i < length; i++) {
+                acc += a[aOffset + i] * b[bOffset + i];
+            }
+            return acc & mask;
+        }
+
+        @Override
+        long binaryDot(long[] a, int aOffset, long[] bits, int bOffset, int length) {
+            long acc = 0;
+            for (int i = 0; i < length; i++) {
+                acc += a[aOffset + i] & -bits[bOffset + i];
+            }
+            return acc & mask;
+        }
+
+        @Override
+        long packedBinaryDot(long[] a, int aOffset, long[] packed, int packedOffset, int length) {
+            long acc = 0;
+            for (int w = 0; w * Long.SIZE < length; w++) {
+                long word = packed[packedOffset + w];
+                int from = aOffset + w * Long.SIZE;
+                while (word != 0) {
+                    acc += a[from + Long.numberOfTrailingZeros(word)];
+                    word &= word - 1;
+                }
+            }
+            return acc & mask;
+        }
+
+        @Override
+        long decomposedDot(long[] a, int aOffset, long[] values, int vOffset, int count, int bits, int digitBits,
+                           int droppedDigits) {
+            final int digits = LWEUtils.digits(bits, digitBits);
+            final int droppedBits = LWEUtils.gadgetExponent(droppedDigits, bits, digitBits);
+            final long bitMask = (bits < Long.SIZE ? (1L << bits) - 1 : -1L) & (-1L << droppedBits);
+            final long lowMask = (1L << (bits - 1)) - 1;
+            final long digitMask = digitBits < Long.SIZE ? (1L << digitBits) - 1 : -1L;
+            final int kept = digits - droppedDigits;
+            long acc = 0;
+            for (int r = 0; r < count; r++) {
+                long value = values[vOffset + r] & bitMask;
+                //Index of the entry matched with digit 0, which may be before aOffset when digits are dropped
+                int from = aOffset + r * kept - droppedDigits;
+                if (digitBits == 1) {
+                    while (value != 0) {
+                        acc += a[from + Long.numberOfTrailingZeros(value)];
+                        value &= value - 1;
+                    }
+                } else {
+                    long low = value & lowMask;
+                    for (int t = droppedDigits; t < digits - 1; t++) {
+                        acc += a[from + t] * ((low >>> (t * digitBits)) & digitMask);
+                    }
+                    acc += a[from + digits - 1] & -(value >>> (bits - 1));
+                }
+            }
+            return acc & mask;
+        }
+
+        @Override
+        void dot4(long[] a, int aOffset, long[] b, int bOffset, int bStride, int length, long[] res, int resOffset) {
+            long acc0 = 0, acc1 = 0, acc2 = 0, acc3 = 0;
+            final int b1 = bOffset + bStride, b2 = b1 + bStride, b3 = b2 + bStride;
+            for (int i = 0; i < length; i++) {
+                long x = a[aOffset + i];
+                acc0 += x * b[bOffset + i];
+                acc1 += x * b[b1 + i];
+                acc2 += x * b[b2 + i];
+                acc3 += x * b[b3 + i];
+            }
+            res[resOffset] = acc0 & mask;
+            res[resOffset + 1] = acc1 & mask;
+            res[resOffset + 2] = acc2 & mask;
+            res[resOffset + 3] = acc3 & mask;
+        }
+    }
+
+    /**
+     * Arithmetic for q below 2^31, where a product always fits in 62 bits.
+     * <br/>
+     * Dot products are accumulated lazily, in runs of as many products as can be summed without overflow,
+     * and only reduced between runs
+     */
+    private static class SmallModulus extends WordArithmetic {
+        /**
+         * Number of products of reduced values, that can be added to a reduced value without exceeding a signed long
+         */
+        private final int safeTerms;
+        /**
+         * Number of reduced values, that can be added to a reduced value without exceeding a signed long
+         */
+        private final int safeAdditions;
+
+        SmallModulus(long q) {
+            super(q);
+            long maxProduct = Math.max(1, (q - 1) * (q - 1));
+            this.safeTerms = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (Long.MAX_VALUE - q) / maxProduct));
+            this.safeAdditions = (int) Math.min(Integer.MAX_VALUE, (Long.MAX_VALUE - q) / Math.max(1, q - 1));
+        }
+
+        @Override
+        long multiply(long a, long b) {
+            return (a * b) % q;
+        }
+
+        @Override
+        long dot(long[] a, int aOffset, long[] b, int bOffset, int length) {
+            long acc = 0;
+            int i = 0;
+            while (i < length) {
+                int runEnd = (int) Math.min(length, (long) i + safeTerms);
+                for (; i < runEnd; i++) {
+                    acc += a[aOffset + i] * b[bOffset + i];
+                }
+                acc %= q;
+            }
+            return acc;
+        }
+
+        @Override
+        long binaryDot(long[] a, int aOffset, long[] bits, int bOffset, int length) {
+            long acc = 0;
+            int i = 0;
+            while (i < length) {
+                int runEnd = (int) Math.min(length, (long) i + safeAdditions);
+                for (; i < runEnd; i++) {
+                    acc += a[aOffset + i] & -bits[bOffset + i];
+                }
+                acc %= q;
+            }
+            return acc;
+        }
+
+        @Override
+        long packedBinaryDot(long[] a, int aOffset, long[] packed, int packedOffset, int length) {
+            if (length > safeAdditions) {
+                return super.packedBinaryDot(a, aOffset, packed, packedOffset, length);
+            }
+            long acc = 0;
+            for (int w = 0; w * Long.SIZE < length; w++) {
+                long word = packed[packedOffset + w];
+                int from = aOffset + w * Long.SIZE;
+                while (word != 0) {
+                    acc += a[from + Long.numberOfTrailingZeros(word)];
+                    word &= word - 1;
+                }
+            }
+            return acc % q;
+        }
+
+        @Override
+        long decomposedDot(long[] a, int aOffset, long[] values, int vOffset, int count, int bits, int digitBits,
+                           int droppedDigits) {
+            if (digitBits != 1 || (long) count * bits > safeAdditions) {
+                return super.decomposedDot(a, aOffset, values, vOffset, count, bits, digitBits, droppedDigits);
+            }
+            //Binary digits, so the dropped digits are the lowest droppedDigits bits
+            final long bitMask = (bits < Long.SIZE ? (1L << bits) - 1 : -1L) & (-1L << droppedDigits);
+            final int kept = bits - droppedDigits;
+            long acc = 0;
+            for (int r = 0; r < count; r++) {
+                long value = values[vOffset + r] & bitMask;
+                int from = aOffset + r * kept - droppedDigits;
+                while (value != 0) {
+                    acc += a[from + Long.numberOfTrailingZeros(value)];
+                    value &= value - 1;
+                }
+            }
+            return acc % q;
+        }
+
+        @Override
+        void dot4(long[] a, int aOffset, long[] b, int bOffset, int bStride, int length, long[] res, int resOffset) {
+            if (length > safeTerms) {
+                super.dot4(a, aOffset, b, bOffset, bStride, length, res, resOffset);
+                return;
+            }
+            long acc0 = 0, acc1 = 0, acc2 = 0, acc3 = 0;
+            final int b1 = bOffset + bStride, b2 = b1 + bStride, b3 = b2 + bStride;
+            for (int i = 0; i < length; i++) {
+                long x = a[aOffset + i];
+                acc0 += x * b[bOffset + i];
+                acc1 += x * b[b1 + i];
+                acc2 += x * b[b2 + i];
+                acc3 += x * b[b3 + i];
+            }
+            res[resOffset] = acc0 % q;
+            res[resOffset + 1] = acc1 % q;
+            res[resOffset + 2] = acc2 % q;
+            res[resOffset + 3] = acc3 % q;
+        }
+    }
+
+    /**
+     * Arithmetic for q up to 63 bits, using 128-bit intermediate products
+     */
+    private static class WordModulus extends WordArithmetic {
+
+        WordModulus(long q) {
+            super(q);
+        }
+
+        @Override
+        long multiply(long a, long b) {
+            return reduce(multiplyHigh(a, b), a * b);
+        }
+
+        @Override
+        long dot(long[] a, int aOffset, long[] b, int bOffset, int length) {
+            long high = 0;
+            long low = 0;
+            for (int i = 0; i < length; i++) {
+                long x = a[aOffset + i];
+                long y = b[bOffset + i];
+                long productLow = x * y;
+                long sum = low + productLow;
+                //Carry if the unsigned sum wrapped around
+                long carry = Long.compareUnsigned(sum, low) < 0 ? 1 : 0;
+                low = sum;
+                high = Long.remainderUnsigned(high + multiplyHigh(x, y) + carry, q);
+            }
+            return reduce(high, low);
+        }
+
+        /**
+         * Reduces the 128-bit value high*2^64 + low, where high &lt; q
+         */
+        private long reduce(long high, long low) {
+            long res = high;
+            for (int bit = 63; bit >= 0; bit--) {
+                res = (res << 1) | ((low >>> bit) & 1);
+                if (Long.compareUnsigned(res, q) >= 0) {
+                    res -= q;
+                }
+            }
+            return res;
+        }
+
+        /**
+         * Upper 64 bits of the product of two non-negative longs
+         */
+        private static long multiplyHigh(long x, long y) {
+            long x1 = x >>> 32;
+            long x2 = x & 0xFFFFFFFFL;
+            long y1 = y >>> 32;
+            long y2 = y & 0xFFFFFFFFL;
+            long z2 = x2 * y2;
+            long t = x1 * y2 + (z2 >>> 32);
+            long z1 = t & 0xFFFFFFFFL;
+            long z0 = t >>> 32;
+            z1 += x2 * y1;
+            return x1 * y1 + z0 + (z1 >>> 32);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package dk.mmj.sampling;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Deterministic random bit generator, as AES in counter mode under a secret seed
+ * <br/>
+ * The generator is splittable: it provides any number of independent streams, where stream <i>i</i> is the
+ * keystream starting from the counter block <code>(i, 0)</code>. Streams can be read concurrently, each from a
+ * thread of its own, and the bits of a stream only depend on the seed and the index of the stream.
+ */
+public class CounterModeGenerator {
+    /**
+     * Length of the seed, which is used as an AES-256 key
+     */
+    public static final int SEED_BYTES = 32;
+    private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+    private static final int BUFFER_SIZE = 4096;
+    private final SecretKeySpec key;
+
+    /**
+     * @param seed the seed - must be {@value SEED_BYTES} bytes
+     */
+    public CounterModeGenerator(byte[] seed) {
+        if (seed.length != SEED_BYTES) {
+            throw new IllegalArgumentException("Seed must be " + SEED_BYTES + " bytes, was " + seed.length);
+        }
+        this.key = new SecretKeySpec(seed.clone(), "AES");
+    }
+
+    /**
+     * @param rand source of a fresh seed
+     */
+    public CounterModeGenerator(SecureRandom rand) {
+        this(newSeed(rand));
+    }
+
+    /**
+     * @param rand source of randomness
+     * @return a fresh seed
+     */
+    public static byte[] newSeed(SecureRandom rand) {
+        byte[] seed = new byte[SEED_BYTES];
+        rand.nextBytes(seed);
+        return seed;
+    }
+
+    /**
+     * @param index index of the stream
+     * @return the stream, read from its beginning
+     */
+    public Stream stream(long index) {
+        byte[] counter = new byte[16];
+        ByteBuffer.wrap(counter).putLong(index);
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(counter));
+            return new Stream(cipher);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Unable to initialize AES in counter mode", e);
+        }
+    }
+
+    /**
+     * A single stream of random words. Not to be shared between threads.
+     */
+    public static class Stream {
+        private final Cipher cipher;
+        private final byte[] zeros = new byte[BUFFER_SIZE];
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private final ByteBuffer words = ByteBuffer.wrap(buffer);
+        private int position = BUFFER_SIZE;
+
+        private Stream(Cipher cipher) {
+            this.cipher = cipher;
+        }
+
+        /**
+         * @return the next 64 random bits
+         */
+        public long nextWord() {
+            if (position == BUFFER_SIZE) {
+                try {
+                    //The keystream is the encryption of zeros
+                    cipher.update(zeros, 0, BUFFER_SIZE, buffer, 0);
+                } catch (GeneralSecurityException e) {
+                    throw new RuntimeException("Unable to generate keystream", e);
+                }
+                position = 0;
+            }
+            long word = words.getLong(position);
+            position += Long.BYTES;
+            return word;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package dk.mmj.sampling;
+
+import dk.mmj.matrix.Matrix;
+
+import java.math.BigInteger;
+
+/**
+ * Samples the discrete Gaussian distribution over the integers, centered at zero, with standard deviation sigma
+ * <br/>
+ * Sampling is done by inversion of a precomputed cumulative distribution table (CDT) over the absolute value,
+ * cut off at {@value TAIL_CUT} standard deviations. A single random word gives a sample: 63 bits are looked up in
+ * the table, and the last bit decides the sign.
+ * <br/>
+ * When sigma is too large for a table of at most {@value MAX_TABLE_LENGTH} entries, samples are instead drawn
+ * as a continuous Gaussian, from the same random words, rounded to the nearest integer.
+ * <br/>
+ * Instances only hold the table, and can be shared between threads.
+ */
+public class GaussianSampler implements Sampler {
+    private static final int TAIL_CUT = 13;
+    private static final int MAX_TABLE_LENGTH = 1 << 16;
+    private final UniformSampler uniform;
+    private final double sigma;
+    /**
+     * Exclusive upper bounds, scaled by 2^63, on the probability of sampling an absolute value up to the index.
+     * Null if sigma is too large for the table
+     */
+    private final long[] table;
+
+    /**
+     * @param uniform source of random bits
+     * @param sigma   standard deviation of the distribution, which is alpha*q in LWE
+     */
+    public GaussianSampler(UniformSampler uniform, double sigma) {
+        if (!(sigma >= 0) || Double.isInfinite(sigma)) {
+            throw new IllegalArgumentException("Standard deviation must be non-negative, was " + sigma);
+        }
+        this.uniform = uniform;
+        this.sigma = sigma;
+
+        double tail = Math.ceil(TAIL_CUT * sigma);
+        this.table = tail < MAX_TABLE_LENGTH ? buildTable((int) tail + 1, sigma) : null;
+    }
+
+    /**
+     * @param length number of entries in the table
+     * @param sigma  standard deviation of the distribution
+     * @return the cumulative distribution table of the absolute value
+     */
+    private static long[] buildTable(int length, double sigma) {
+        //Zero has weight 1, every other absolute value counts both signs
+        double[] weights = new double[length];
+        weights[0] = 1;
+        double total = 1;
+        for (int i = 1; i < length; i++) {
+            weights[i] = 2 * Math.exp(-((double) i * i) / (2 * sigma * sigma));
+            total += weights[i];
+        }
+
+        long[] res = new long[length];
+        double cumulative = 0;
+        for (int i = 0; i < length; i++) {
+            cumulative += weights[i];
+            res[i] = (long) (cumulative / total * 0x1p63);//Saturates at Long.MAX_VALUE
+        }
+        res[length - 1] = Long.MAX_VALUE;
+        return res;
+    }
+
+    /**
+     * @param word 64 random bits
+     * @return the sample determined by the bits
+     */
+    private long sample(long word) {
+        long u = word >>> 1;
+        int lo = 0;
+        int hi = table.length - 1;
+        while (lo < hi) {//Smallest index with u below its bound
+            int mid = (lo + hi) >>> 1;
+            if (u < table[mid]) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return (word & 1) == 0 ? lo : -lo;
+    }
+
+    /**
+     * @param first  64 random bits
+     * @param second 64 random bits
+     * @return a continuous Gaussian, by the Box-Muller transform, rounded to the nearest integer
+     */
+    private long sampleContinuous(long first, long second) {
+        double u1 = ((first >>> 11) + 1) * 0x1p-53;//In (0, 1], so the logarithm is finite
+        double u2 = (second >>> 11) * 0x1p-53;
+        double v = Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2) * sigma;
+
+        return v > 0 ? ((long) (v + .5d)) : ((long) (v - .5d));
+    }
+
+    /**
+     * Fills the array with signed samples
+     *
+     * @param res array to be filled
+     */
+    public void fill(long[] res) {
+        long[] words = new long[table != null ? res.length : 2 * res.length];
+        uniform.fillBits(words);
+        for (int i = 0; i < res.length; i++) {
+            res[i] = table != null ? sample(words[i]) : sampleContinuous(words[2 * i], words[2 * i + 1]);
+        }
+    }
+
+    @Override
+    public void fill(long[] res, BigInteger q) {
+        if (!Matrix.fitsInWords(q)) {
+            throw new IllegalArgumentException("Unable to sample words mod q=" + q);
+        }
+
+        fill(res);
+        long modulus = q.longValue();
+        if (modulus != 0) {//Two's complement already is the residue mod 2^64
+            for (int i = 0; i < res.length; i++) {
+                //The modulus is unsigned, as q may be 2^63, so a negative sample x is reduced as q - |x|
+                long magnitude = Long.remainderUnsigned(Math.abs(res[i]), modulus);
+                res[i] = res[i] >= 0 || magnitude == 0 ? magnitude : modulus - magnitude;
+            }
+        }
+    }
+
+    @Override
+    public BigInteger next(BigInteger q) {
+        long value = table != null
+                ? sample(uniform.nextWord())
+                : sampleContinuous(uniform.nextWord(), uniform.nextWord());
+        return BigInteger.valueOf(value).mod(q);
+    }
+}
@@ -0,0 +1,24 @@
+package dk.mmj.sampling;
+
+import java.math.BigInteger;
+
+/**
+ * Sampler of values mod q from some distribution, able to fill whole arrays at once
+ */
+public interface Sampler {
+
+    /**
+     * Fills the array with samples mod q
+     *
+     * @param res array to be filled
+     * @param q   the modulus - must fit in 63 bits, or be a power of two of at most 2^64.
+     *            Values mod 2^64 are interpreted as unsigned
+     */
+    void fill(long[] res, BigInteger q);
+
+    /**
+     * @param q the modulus, of any size
+     * @return a single sample mod q
+     */
+    BigInteger next(BigInteger q);
+}
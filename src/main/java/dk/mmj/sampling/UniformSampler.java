@@ -0,0 +1,151 @@
+package dk.mmj.sampling;
+
+import dk.mmj.matrix.Matrix;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Samples uniformly random values in bulk, straight into primitive arrays
+ * <br/>
+ * Random words are drawn from a {@link CounterModeGenerator}. An array is split into stripes of
+ * {@value STRIPE_WORDS} words, and every stripe is filled in parallel from a stream of its own, so filling
+ * scales with the number of cores. Every fill reserves fresh streams, so no two stripes ever share bits.
+ * Single values are drawn from one stream per thread, reserved on the first draw of the thread, such that the
+ * cipher is only initialized once per thread rather than once per value.
+ * <br/>
+ * For a power of two q, up to 2^64, a word is masked down to a value, so no word is ever rejected. For any other q that fits
+ * in 63 bits, words are masked to the bit-length of q and rejected if not below q, which rejects less than half.
+ * <br/>
+ * Instances can be shared between threads.
+ */
+public class UniformSampler implements Sampler {
+    private static final int STRIPE_WORDS = 1 << 13;
+    private final CounterModeGenerator generator;
+    private final AtomicLong streams;
+    private final ThreadLocal<CounterModeGenerator.Stream> singleStream;
+
+    /**
+     * @param rand source of the seed for the generator
+     */
+    public UniformSampler(SecureRandom rand) {
+        this(new CounterModeGenerator(rand));
+    }
+
+    /**
+     * @param generator source of the random words. The sampler must be the only user of its streams
+     */
+    public UniformSampler(CounterModeGenerator generator) {
+        this(generator, 0);
+    }
+
+    /**
+     * Creates a sampler reading the streams of the generator from the given index and onwards.
+     * This allows a number of samplers to share a generator, when each is given a disjoint range of streams.
+     *
+     * @param generator   source of the random words
+     * @param firstStream index of the first stream to read
+     */
+    public UniformSampler(CounterModeGenerator generator, long firstStream) {
+        this.generator = generator;
+        this.streams = new AtomicLong(firstStream);
+        this.singleStream = ThreadLocal.withInitial(() -> generator.stream(streams.getAndIncrement()));
+    }
+
+    /**
+     * @return 64 random bits, from the stream of the calling thread
+     */
+    public long nextWord() {
+        return singleStream.get().nextWord();
+    }
+
+    /**
+     * Fills every stripe of the array, in parallel, each from a fresh stream
+     *
+     * @param res    array to be filled
+     * @param filler fills a stripe from a stream
+     */
+    private void fillStriped(long[] res, StripeFiller filler) {
+        int stripes = (res.length + STRIPE_WORDS - 1) / STRIPE_WORDS;
+        long first = streams.getAndAdd(stripes);
+
+        IntStream range = IntStream.range(0, stripes);
+        if (stripes > 1) {
+            range = range.parallel();
+        }
+        range.forEach(stripe -> filler.fill(generator.stream(first + stripe), res,
+                stripe * STRIPE_WORDS, Math.min(res.length, (stripe + 1) * STRIPE_WORDS)));
+    }
+
+    /**
+     * Fills the array with random bits
+     *
+     * @param res array to be filled
+     */
+    public void fillBits(long[] res) {
+        fillStriped(res, (stream, words, from, to) -> {
+            for (int i = from; i < to; i++) {
+                words[i] = stream.nextWord();
+            }
+        });
+    }
+
+    @Override
+    public void fill(long[] res, BigInteger q) {
+        if (!Matrix.fitsInWords(q)) {
+            throw new IllegalArgumentException("Unable to sample words mod q=" + q);
+        }
+
+        if (q.bitCount() == 1) {
+            long mask = q.longValue() - 1;//Unsigned for q=2^63, and -1 for q=2^64, keeping every bit
+            fillStriped(res, (stream, words, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    words[i] = stream.nextWord() & mask;
+                }
+            });
+            return;
+        }
+
+        long modulus = q.longValue();
+        long mask = -1L >>> (Long.SIZE - q.bitLength());
+        fillStriped(res, (stream, words, from, to) -> {
+            for (int i = from; i < to; i++) {
+                long value;
+                do {
+                    value = stream.nextWord() & mask;
+                } while (value >= modulus);
+                words[i] = value;
+            }
+        });
+    }
+
+    @Override
+    public BigInteger next(BigInteger q) {
+        int bits = q.bitLength();
+        int words = (bits + Long.SIZE - 1) / Long.SIZE;
+        ByteBuffer bytes = ByteBuffer.allocate(words * Long.BYTES);
+        CounterModeGenerator.Stream stream = singleStream.get();
+        BigInteger value;
+        do {
+            bytes.clear();
+            for (int i = 0; i < words; i++) {
+                bytes.putLong(stream.nextWord());
+            }
+            value = new BigInteger(1, bytes.array()).shiftRight(words * Long.SIZE - bits);
+        } while (value.compareTo(q) >= 0);
+        return value;
+    }
+
+    private interface StripeFiller {
+        /**
+         * @param stream stream reserved for the stripe
+         * @param res    the array being filled
+         * @param from   first index of the stripe, inclusive
+         * @param to     last index of the stripe, exclusive
+         */
+        void fill(CounterModeGenerator.Stream stream, long[] res, int from, int to);
+    }
+}
@@ -2,14 +2,13 @@ package dk.mmj;
 
 import dk.mmj.fhe.LWECiphertext;
 import dk.mmj.fhe.LWESecretKey;
-import dk.mmj.matrix.LWEUtils;
+import dk.mmj.matrix.Gadget;
 import dk.mmj.matrix.Matrix;
 
 import java.math.BigInteger;
 import java.util.Optional;
 import java.util.stream.IntStream;
 
-import static dk.mmj.matrix.LWEUtils.logQ;
 import static java.math.BigInteger.ONE;
 import static java.math.BigInteger.ZERO;
 
@@ -37,18 +36,15 @@ public class LWEBenchmarkUtils {
         Matrix c = ciphertext.getC();
         Matrix s = sk.getS();
         BigInteger q = sk.getQ();
-        final Matrix bigG = LWEUtils.createG(s.getColumns(), q);
-        final Matrix sG = s.multiply(bigG, q);
+        final Gadget gadget = sk.getGadget();
+        final Matrix sG = gadget.leftMultiply(s);
         final Matrix sC = s.multiply(c, q);
         final Matrix xsG = sG.multiply(value ? ONE : ZERO, q);
 
         LWEBenchmarkUtils util = new LWEBenchmarkUtils(xsG, q, sC);
 
-        int logQ = logQ(q);
-
-        Optional<BigInteger> reduce = IntStream.range(0, sC.getColumns()).parallel()
-                .filter(i -> i % (logQ) == 0)//Only read one for each g in G
-                .map(i -> i + logQ - 1)//read the index corresponding to the most significant bit
+        Optional<BigInteger> reduce = IntStream.range(0, gadget.getRows()).parallel()
+                .map(gadget::mostSignificantColumn)//Only read the most significant digit for each g in G
                 .mapToObj(util::calculateNoiseSingle)
                 .reduce(BigInteger::max);
 
@@ -1,10 +1,20 @@
 package dk.mmj;
 
 import dk.mmj.circuit.TestCircuitBuilder;
+import dk.mmj.fhe.TestCiphertextStore;
+import dk.mmj.fhe.TestCiphertextStreamer;
+import dk.mmj.fhe.TestEncryptionPool;
 import dk.mmj.fhe.TestLWE;
 import dk.mmj.fhe.TestLWECircuits;
+import dk.mmj.fhe.TestLWEWireFormat;
+import dk.mmj.matrix.TestBitMatrix;
+import dk.mmj.matrix.TestGadget;
+import dk.mmj.matrix.TestGadgetCache;
 import dk.mmj.matrix.TestLWEUtils;
 import dk.mmj.matrix.TestMatrix;
+import dk.mmj.sampling.TestCounterModeGenerator;
+import dk.mmj.sampling.TestGaussianSampler;
+import dk.mmj.sampling.TestUniformSampler;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
@@ -14,9 +24,21 @@ import org.junit.runners.Suite;
         TestLWE.class,
         TestLWEUtils.class,
         TestLWECircuits.class,
+        TestEncryptionPool.class,
+        TestLWEWireFormat.class,
+        TestCiphertextStore.class,
+        TestCiphertextStreamer.class,
 
         //Matrix
         TestMatrix.class,
+        TestBitMatrix.class,
+        TestGadget.class,
+        TestGadgetCache.class,
+
+        //Sampling
+        TestUniformSampler.class,
+        TestGaussianSampler.class,
+        TestCounterModeGenerator.class,
 
         //Circuit
         TestCircuitBuilder.class
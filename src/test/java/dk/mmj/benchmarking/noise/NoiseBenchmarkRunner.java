@@ -170,6 +170,38 @@ public class NoiseBenchmarkRunner {
         observer.log();
     }
 
+    @Test
+    public void benchmarkNoiseAndWithApproximateGadget() {
+        LWE lwe = new LWE();
+        FHE.KeyPair keyPair = lwe.generateKey(new LWEParameters().setBaseBits(2).setDroppedDigits(3));
+
+        NoiseObserver observer = new NoiseObserver(keyPair.getSecretKey(), lwe);
+
+        CircuitBuilder cb = new CircuitBuilder(lwe).addObserver(observer);
+
+        CircuitBuilder.MultipleInputGateBuilder and = cb.and();
+        and.leftGate().input(0);
+        CircuitBuilder.MultipleInputGateBuilder secondAnd = and.rightGate().and();
+        secondAnd.leftGate().input(1);
+        secondAnd.rightGate().input(2);
+
+        Circuit circuit = cb.build();
+
+        for (boolean[] booleans : permutations3()) {
+            Ciphertext[] ciphertexts = {
+                    lwe.encrypt(booleans[0], keyPair.getPublicKey()),
+                    lwe.encrypt(booleans[1], keyPair.getPublicKey()),
+                    lwe.encrypt(booleans[2], keyPair.getPublicKey())
+            };
+
+            Ciphertext valC = circuit.evaluate(keyPair.getPublicKey(), ciphertexts);
+            boolean decrypt = lwe.decrypt(valC, keyPair.getSecretKey());
+            assertEquals("Decryption failed - noise was too high!: ", (booleans[0] & booleans[1] & booleans[2]), decrypt);
+        }
+
+        observer.log();
+    }
+
     @Test
     public void benchmarkNoiseNot() {
         LWE lwe = new LWE();
@@ -61,6 +61,31 @@ public class MatrixPerformanceBenchmarks {
         blackhole.consume(multiply);
     }
 
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Fork(value = 1, warmups = 1)
+    @Measurement(iterations = 1, batchSize = 20, time=5, timeUnit = TimeUnit.MINUTES)
+    @Timeout(time = 20)
+    @Warmup(iterations = 1)
+    public void multiplicationUntiled(Blackhole blackhole, MatrixBenchmarkState state) {
+        state.a.disableConcurrency();
+        state.a.disableTiling();
+        Matrix multiply = state.a.multiply(state.b, q);
+        blackhole.consume(multiply);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Fork(value = 1, warmups = 1)
+    @Measurement(iterations = 1, batchSize = 20, time=5, timeUnit = TimeUnit.MINUTES)
+    @Timeout(time = 20)
+    @Warmup(iterations = 1)
+    public void multiplicationConcurrentUntiled(Blackhole blackhole, MatrixBenchmarkState state) {
+        state.a.disableTiling();
+        Matrix multiply = state.a.multiply(state.b, q);
+        blackhole.consume(multiply);
+    }
+
     @Benchmark
     @BenchmarkMode(Mode.AverageTime)
     @Fork(value = 1, warmups = 1)
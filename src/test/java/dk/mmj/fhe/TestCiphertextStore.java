@@ -0,0 +1,177 @@
+package dk.mmj.fhe;
+
+import dk.mmj.fhe.interfaces.Ciphertext;
+import dk.mmj.fhe.interfaces.FHE;
+import dk.mmj.fhe.interfaces.PublicKey;
+import dk.mmj.fhe.interfaces.SecretKey;
+import dk.mmj.matrix.BufferMatrix;
+import dk.mmj.matrix.Gadget;
+import dk.mmj.matrix.Matrix;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+
+import static java.math.BigInteger.ONE;
+import static org.junit.Assert.*;
+
+public class TestCiphertextStore {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private LWE lwe;
+    private FHE.KeyPair keyPair;
+    private Gadget gadget;
+    private Path file;
+
+    @Before
+    public void setup() {
+        lwe = new LWE();
+        keyPair = lwe.generateKey(new LWEParameters());
+        gadget = ((LWEPublicKey) keyPair.getPublicKey()).getGadget();
+        file = folder.getRoot().toPath().resolve("ciphertexts.store");
+    }
+
+    private LWECiphertext encrypt(boolean x) {
+        return (LWECiphertext) lwe.encrypt(x, keyPair.getPublicKey());
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        try (CiphertextStore store = CiphertextStore.create(file, gadget, 3)) {
+            LWECiphertext c = encrypt(true);
+            int slot = store.put(c);
+
+            assertEquals("First ciphertext should be put in the first slot", 0, slot);
+            assertEquals("Store should hold a single ciphertext", 1, store.size());
+            Matrix view = store.get(slot).getC();
+            assertTrue("Stored ciphertext should be a view of the file", view instanceof BufferMatrix);
+            assertEquals("Stored ciphertext did not match", c.getC(), view);
+            assertEquals("Stored ciphertext did not decrypt", true,
+                    lwe.decrypt(store.get(slot), keyPair.getSecretKey()));
+        }
+    }
+
+    @Test
+    public void testGatesOnStoredCiphertexts() throws IOException {
+        try (CiphertextStore store = CiphertextStore.create(file, gadget, 8)) {
+            int one = store.put(encrypt(true));
+            int zero = store.put(encrypt(false));
+
+            PublicKey pk = keyPair.getPublicKey();
+            int and = store.put((LWECiphertext) lwe.and(store.get(one), store.get(zero), pk));
+            int xor = store.put((LWECiphertext) lwe.xor(store.get(one), store.get(zero), pk));
+            int not = store.put((LWECiphertext) lwe.not(store.get(one), pk));
+            int nand = store.put((LWECiphertext) lwe.and(store.get(xor), store.get(one), pk));
+
+            SecretKey sk = keyPair.getSecretKey();
+            assertEquals("AND of stored ciphertexts failed", false, lwe.decrypt(store.get(and), sk));
+            assertEquals("XOR of stored ciphertexts failed", true, lwe.decrypt(store.get(xor), sk));
+            assertEquals("NOT of stored ciphertext failed", false, lwe.decrypt(store.get(not), sk));
+            assertEquals("AND of stored results failed", true, lwe.decrypt(store.get(nand), sk));
+
+            Ciphertext[] all = new Ciphertext[]{store.get(one), store.get(zero), store.get(and)};
+            assertArrayEquals("Batched decryption of stored ciphertexts failed", new boolean[]{true, false, false},
+                    lwe.decrypt(all, sk));
+        }
+    }
+
+    @Test
+    public void testFreeSlotIsReused() throws IOException {
+        try (CiphertextStore store = CiphertextStore.create(file, gadget, 2)) {
+            int first = store.put(encrypt(true));
+            store.put(encrypt(true));
+            try {
+                store.put(encrypt(true));
+                fail("Put into a full store should fail");
+            } catch (IllegalStateException ignored) {
+            }
+
+            store.free(first);
+            assertFalse("Freed slot should not be occupied", store.isOccupied(first));
+            assertEquals("Freed slot should be reused", first, store.put(encrypt(false)));
+            assertEquals("Reused slot should hold the new ciphertext", false,
+                    lwe.decrypt(store.get(first), keyPair.getSecretKey()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetFreeSlot() throws IOException {
+        try (CiphertextStore store = CiphertextStore.create(file, gadget, 2)) {
+            store.get(1);
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        LWECiphertext c = encrypt(true);
+        try (CiphertextStore store = CiphertextStore.create(file, gadget, 100)) {
+            store.set(70, c);
+        }
+
+        try (CiphertextStore store = CiphertextStore.open(file)) {
+            assertEquals("Reopened store should have the same capacity", 100, store.getCapacity());
+            assertEquals("Reopened store should hold the ciphertext", 1, store.size());
+            assertTrue("Reopened store should have the slot occupied", store.isOccupied(70));
+            assertEquals("Reopened store should hold the ciphertext", c.getC(), store.get(70).getC());
+            assertEquals("First free slot should be found on reopening", 0, store.put(c));
+        }
+    }
+
+    @Test
+    public void testCorruptFileRejected() throws IOException {
+        CiphertextStore.create(file, gadget, 10).close();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+        try {
+            CiphertextStore.open(file);
+            fail("Truncated store should be rejected");
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        Files.delete(file);
+        CiphertextStore.create(file, gadget, 10).close();
+        //Capacity follows magic and version
+        for (int capacity : new int[]{0, -1, 11}) {
+            ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.putInt(capacity).flip();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(bytes, 2 * Integer.BYTES);
+            }
+            try {
+                CiphertextStore.open(file);
+                fail("Store with corrupt capacity " + capacity + " should be rejected");
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLargeModulusRejected() throws IOException {
+        CiphertextStore.create(file, new Gadget(3, ONE.shiftLeft(70)), 1);
+    }
+
+    @Test
+    public void testLargeWords() throws IOException {
+        BigInteger q = ONE.shiftLeft(64);
+        Gadget large = new Gadget(2, q, 16);
+        SecureRandom rand = new SecureRandom();
+        Matrix m = new Matrix(2, large.getColumns(), bound -> new BigInteger(Long.SIZE, rand).mod(bound), q);
+        try (CiphertextStore store = CiphertextStore.create(file, large, 1)) {
+            Matrix view = store.get(store.put(new LWECiphertext(m))).getC();
+            assertEquals("Entries above 2^63 should be read back unsigned", m, view);
+            assertEquals("Transpose of view did not match", m.transpose(), view.transpose());
+            assertEquals("Sum with view did not match", m.add(m, q), view.add(view, q));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package dk.mmj.fhe;
+
+import dk.mmj.fhe.interfaces.FHE;
+import dk.mmj.matrix.Matrix;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestCiphertextStreamer {
+    private LWE lwe;
+    private LWEPublicKey pk;
+    private LWESecretKey sk;
+    private CiphertextStreamer streamer;
+
+    @Before
+    public void setup() {
+        lwe = new LWE();
+        FHE.KeyPair keyPair = lwe.generateKey(new LWEParameters());
+        pk = (LWEPublicKey) keyPair.getPublicKey();
+        sk = (LWESecretKey) keyPair.getSecretKey();
+        streamer = new CiphertextStreamer(lwe, 3, 16);
+    }
+
+    @After
+    public void tearDown() {
+        streamer.close();
+    }
+
+    private byte[] encrypt(byte[] plaintext) throws IOException {
+        ByteArrayOutputStream ciphertexts = new ByteArrayOutputStream();
+        long encrypted = streamer.encrypt(new ByteArrayInputStream(plaintext), pk, Channels.newChannel(ciphertexts));
+        assertEquals("Every plaintext byte should be encrypted", plaintext.length, encrypted);
+        return ciphertexts.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] ciphertexts) throws IOException {
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        streamer.decrypt(Channels.newChannel(new ByteArrayInputStream(ciphertexts)), sk, plaintext);
+        return plaintext.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] plaintext = new byte[201];//Not a multiple of the chunk size
+        new SecureRandom().nextBytes(plaintext);
+
+        byte[] ciphertexts = encrypt(plaintext);
+        assertEquals("Every bit should be encrypted as a single ciphertext",
+                plaintext.length * Byte.SIZE * LWEWireFormat.ciphertextLength(pk.getGadget()), ciphertexts.length);
+        assertArrayEquals("Decrypted stream did not match the plaintext", plaintext, decrypt(ciphertexts));
+
+        assertEquals("Bytes of both encryption and decryption should be counted", 2 * plaintext.length,
+                streamer.getPlaintextBytes());
+        assertTrue("Throughput should be reported", streamer.getThroughput() > 0);
+    }
+
+    @Test
+    public void testCiphertextsAreDecodable() throws IOException {
+        byte[] ciphertexts = encrypt(new byte[]{(byte) 0b1000_0001});
+
+        int length = LWEWireFormat.ciphertextLength(pk.getGadget());
+        boolean[] bits = new boolean[Byte.SIZE];
+        for (int i = 0; i < bits.length; i++) {
+            ByteBuffer buffer = ByteBuffer.wrap(ciphertexts, i * length, length);
+            bits[i] = lwe.decrypt(LWEWireFormat.decodeCiphertext(buffer), sk);
+        }
+        assertArrayEquals("Bits should be encrypted least significant first",
+                new boolean[]{true, false, false, false, false, false, false, true}, bits);
+    }
+
+    @Test
+    public void testEmptyStream() throws IOException {
+        assertEquals("Empty stream should give no ciphertexts", 0, encrypt(new byte[0]).length);
+        assertEquals("Empty stream should give no plaintext", 0, decrypt(new byte[0]).length);
+        assertEquals("Nothing should be processed", 0, streamer.getPlaintextBytes());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedStream() throws IOException {
+        byte[] ciphertexts = encrypt(new byte[]{1, 2, 3});
+        decrypt(Arrays.copyOf(ciphertexts, ciphertexts.length - 1));
+    }
+
+    @Test
+    public void testFailureWaitsForChunksInFlight() throws IOException {
+        AtomicInteger running = new AtomicInteger();
+        LWEPublicKey broken = new LWEPublicKey(pk.getKey(), pk.getQ(), pk.getGadget()) {
+            @Override
+            Matrix multiply(Matrix r) {
+                running.incrementAndGet();
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                }
+                throw new IllegalStateException("Broken key");
+            }
+        };
+
+        try {
+            streamer.encrypt(new ByteArrayInputStream(new byte[16 * 10]), broken,
+                    Channels.newChannel(new ByteArrayOutputStream()));
+            fail("Failing encryption should be reported");
+        } catch (IllegalStateException e) {
+            assertEquals("Broken key", e.getMessage());
+            assertEquals("No chunk should be encrypting once the failure is reported", 0, running.get());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidChunkSize() {
+        new CiphertextStreamer(lwe, 1, 0);
+    }
+}
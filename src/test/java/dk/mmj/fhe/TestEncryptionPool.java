@@ -0,0 +1,89 @@
+package dk.mmj.fhe;
+
+import dk.mmj.fhe.interfaces.Ciphertext;
+import dk.mmj.fhe.interfaces.FHE;
+import dk.mmj.matrix.Matrix;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestEncryptionPool {
+    private LWE lwe;
+    private FHE.KeyPair keyPair;
+
+    @Before
+    public void setup() {
+        lwe = new LWE();
+        keyPair = lwe.generateKey(new LWEParameters());
+    }
+
+    private static void awaitAvailable(EncryptionPool pool, int available) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (pool.getAvailable() < available) {
+            assertTrue("Pool was not filled in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testPooledEncryptions() throws InterruptedException {
+        try (EncryptionPool pool = new EncryptionPool(lwe, (LWEPublicKey) keyPair.getPublicKey(), 4, 2)) {
+            awaitAvailable(pool, 4);
+
+            Ciphertext c1 = pool.encrypt(true);
+            Ciphertext c0 = pool.encrypt(false);
+            assertEquals("Dec(Enc(1))!=1 for pooled encryption", true, lwe.decrypt(c1, keyPair.getSecretKey()));
+            assertEquals("Dec(Enc(0))!=0 for pooled encryption", false, lwe.decrypt(c0, keyPair.getSecretKey()));
+            assertEquals("Homomorphic AND failed for pooled encryptions", false,
+                    lwe.decrypt(lwe.and(c1, c0, keyPair.getPublicKey()), keyPair.getSecretKey()));
+            assertEquals("Both encryptions should be served from the pool", 2, pool.getHits());
+            assertEquals("No encryption should miss the pool", 0, pool.getMisses());
+        }
+    }
+
+    @Test
+    public void testMissWhenDrained() throws InterruptedException {
+        EncryptionPool pool = new EncryptionPool(lwe, (LWEPublicKey) keyPair.getPublicKey(), 1, 1);
+        awaitAvailable(pool, 1);
+        pool.close();
+        Thread.sleep(50);//Let an encryption in progress finish, and find the pool full
+
+        assertTrue("Pooled encryption failed", lwe.decrypt(pool.encrypt(true), keyPair.getSecretKey()));
+        assertTrue("Encryption on miss failed", lwe.decrypt(pool.encrypt(true), keyPair.getSecretKey()));
+        assertEquals("Unexpected number of hits", 1, pool.getHits());
+        assertEquals("Unexpected number of misses", 1, pool.getMisses());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDepth() {
+        new EncryptionPool(lwe, (LWEPublicKey) keyPair.getPublicKey(), 0, 1);
+    }
+
+    @Test
+    public void testBackgroundFailureIsReported() throws InterruptedException {
+        LWEPublicKey pk = (LWEPublicKey) keyPair.getPublicKey();
+        LWEPublicKey broken = new LWEPublicKey(pk.getKey(), pk.getQ(), pk.getGadget()) {
+            @Override
+            Matrix multiply(Matrix r) {
+                throw new IllegalStateException("Broken key");
+            }
+        };
+
+        try (EncryptionPool pool = new EncryptionPool(lwe, broken, 4, 2)) {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (pool.getFailure() == null) {
+                assertTrue("Failure was not recorded in time", System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+            assertEquals("Broken key", pool.getFailure().getMessage());
+
+            try {
+                pool.encrypt(true);
+                fail("Encryption should fail once a background encryption has failed");
+            } catch (IllegalStateException e) {
+                assertSame("Background failure should be the cause", pool.getFailure(), e.getCause());
+            }
+        }
+    }
+}
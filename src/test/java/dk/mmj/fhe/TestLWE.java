@@ -4,9 +4,12 @@ import dk.mmj.fhe.interfaces.Ciphertext;
 import dk.mmj.fhe.interfaces.FHE;
 import dk.mmj.fhe.interfaces.PublicKey;
 import dk.mmj.fhe.interfaces.SecretKey;
+import dk.mmj.matrix.Matrix;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.math.BigInteger;
+
 import static org.junit.Assert.*;
 
 @SuppressWarnings("ConstantConditions")
@@ -52,6 +55,15 @@ public class TestLWE {
         }
     }
 
+    @Test
+    public void testWordSizedModulus() {
+        FHE.KeyPair wordKeyPair = lwe.generateKey(new LWEParameters().setQ(BigInteger.ONE.shiftLeft(63)));
+        for (boolean m : new boolean[]{false, true}) {
+            Ciphertext c = lwe.encrypt(m, wordKeyPair.getPublicKey());
+            assertEquals("Dec(Enc(m))!=m mod 2^63, for m=" + m, m, lwe.decrypt(c, wordKeyPair.getSecretKey()));
+        }
+    }
+
     @Test
     public void testNot() {
         final Boolean[] options = {false, true};
@@ -157,4 +169,175 @@ public class TestLWE {
         }
     }
 
+    @Test
+    public void testLargerGadgetBase() {
+        LWE lwe = new LWE();
+        FHE.KeyPair keyPair = lwe.generateKey(new LWEParameters().setBaseBits(3));
+        final PublicKey pk = keyPair.getPublicKey();
+        final SecretKey sk = keyPair.getSecretKey();
+        final Boolean[] options = {false, true};
+
+        for (Boolean m1 : options) {
+            for (Boolean m2 : options) {
+                final Ciphertext c1 = lwe.encrypt(m1, pk);
+                final Ciphertext c2 = lwe.encrypt(m2, pk);
+
+                assertEquals("Dec(Enc(m))!=m with base 8", m1, lwe.decrypt(c1, sk));
+                assertEquals("Homomorphic NOT failed with base 8", !m1, lwe.decrypt(lwe.not(c1, pk), sk));
+                assertEquals("Homomorphic AND failed with base 8", m1 & m2, lwe.decrypt(lwe.and(c1, c2, pk), sk));
+                assertEquals("Homomorphic XOR failed with base 8", m1 ^ m2, lwe.decrypt(lwe.xor(c1, c2, pk), sk));
+            }
+        }
+    }
+
+    @Test
+    public void testApproximateGadget() {
+        LWE lwe = new LWE();
+        FHE.KeyPair keyPair = lwe.generateKey(new LWEParameters().setBaseBits(2).setDroppedDigits(3));
+        final PublicKey pk = keyPair.getPublicKey();
+        final SecretKey sk = keyPair.getSecretKey();
+        final Boolean[] options = {false, true};
+
+        for (Boolean m1 : options) {
+            for (Boolean m2 : options) {
+                final Ciphertext c1 = lwe.encrypt(m1, pk);
+                final Ciphertext c2 = lwe.encrypt(m2, pk);
+
+                assertEquals("Dec(Enc(m))!=m with approximate gadget", m1, lwe.decrypt(c1, sk));
+                assertEquals("Homomorphic NOT failed with approximate gadget", !m1, lwe.decrypt(lwe.not(c1, pk), sk));
+                assertEquals("Homomorphic AND failed with approximate gadget",
+                        m1 & m2, lwe.decrypt(lwe.and(c1, c2, pk), sk));
+                assertEquals("Homomorphic XOR failed with approximate gadget",
+                        m1 ^ m2, lwe.decrypt(lwe.xor(c1, c2, pk), sk));
+            }
+        }
+    }
+
+    @Test
+    public void testBatchedDecrypt() {
+        final PublicKey pk = keyPair.getPublicKey();
+        final SecretKey sk = keyPair.getSecretKey();
+
+        boolean[] messages = new boolean[50];
+        Ciphertext[] cs = new Ciphertext[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = i % 3 == 0;
+            cs[i] = lwe.encrypt(messages[i], pk);
+        }
+        //Results of homomorphic operations are stored differently from fresh ciphertexts
+        cs[1] = lwe.and(cs[0], cs[3], pk);
+        messages[1] = true;
+        cs[2] = lwe.not(cs[2], pk);
+        messages[2] = true;
+
+        assertArrayEquals("Batched decryption did not match messages", messages, lwe.decrypt(cs, sk));
+        assertEquals("Batched decryption of no ciphertexts should be empty", 0, lwe.decrypt(new Ciphertext[0], sk).length);
+    }
+
+    @Test
+    public void testBatchedEncrypt() {
+        final PublicKey pk = keyPair.getPublicKey();
+        final SecretKey sk = keyPair.getSecretKey();
+
+        boolean[] messages = new boolean[64];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = (0xC0FFEE1234L >>> i & 1) == 1;
+        }
+        Ciphertext[] cs = lwe.encrypt(messages, pk);
+
+        assertEquals("Unexpected number of ciphertexts", messages.length, cs.length);
+        assertNotEquals("Ciphertexts should not match for two encryptions of the same bit", cs[1], cs[2]);
+        for (int i = 0; i < messages.length; i++) {
+            assertEquals("Dec(Enc(m))!=m for bit " + i, messages[i], lwe.decrypt(cs[i], sk));
+        }
+        assertEquals("Homomorphic AND failed on batch encryptions",
+                messages[2] & messages[4], lwe.decrypt(lwe.and(cs[2], cs[4], pk), sk));
+        assertEquals("Encrypting no bits should be empty", 0, lwe.encrypt(new boolean[0], pk).length);
+    }
+
+    @Test
+    public void testSeededPublicKey() {
+        LWE lwe = new LWE();
+        FHE.KeyPair keyPair = lwe.generateKey(new LWEParameters().setN(10).setM(40).setSeededPublicKey(true));
+        final LWEPublicKey pk = (LWEPublicKey) keyPair.getPublicKey();
+        final SecretKey sk = keyPair.getSecretKey();
+
+        assertTrue("Key should be seeded", pk.isSeeded());
+        assertEquals("Expansion should be deterministic", pk.getKey(), pk.getKey());
+        Matrix b = pk.getKey().transpose().columnRange(10, 11).transpose();
+        LWEPublicKey copy = new LWEPublicKey(pk.getSeed(), b, pk.getQ(), pk.getGadget());
+        assertEquals("Key rebuilt from its seed should match", pk.getKey(), copy.getKey());
+
+        final Boolean[] options = {false, true};
+        for (Boolean m1 : options) {
+            for (Boolean m2 : options) {
+                final Ciphertext c1 = lwe.encrypt(m1, copy);
+                final Ciphertext c2 = lwe.encrypt(m2, pk);
+
+                assertEquals("Dec(Enc(m))!=m with seeded key", m1, lwe.decrypt(c1, sk));
+                assertEquals("Homomorphic AND failed with seeded key", m1 & m2, lwe.decrypt(lwe.and(c1, c2, pk), sk));
+                assertEquals("Homomorphic XOR failed with seeded key", m1 ^ m2, lwe.decrypt(lwe.xor(c1, c2, pk), sk));
+            }
+        }
+        boolean[] messages = {true, false, true, true};
+        assertArrayEquals("Batched encryption failed with seeded key", messages, lwe.decrypt(lwe.encrypt(messages, pk), sk));
+    }
+
+    @Test
+    public void testModulusSwitching() {
+        LWE lwe = new LWE();
+        for (BigInteger q : new BigInteger[]{BigInteger.ONE.shiftLeft(21), BigInteger.valueOf(2_000_003)}) {
+            FHE.KeyPair keyPair = lwe.generateKey(new LWEParameters().setQ(q).setSmallSecret(true));
+            final LWEPublicKey pk = (LWEPublicKey) keyPair.getPublicKey();
+            final SecretKey sk = keyPair.getSecretKey();
+            final Boolean[] options = {false, true};
+
+            for (BigInteger modulus : new BigInteger[]{BigInteger.ONE.shiftLeft(10), BigInteger.valueOf(1021)}) {
+                for (Boolean m1 : options) {
+                    for (Boolean m2 : options) {
+                        //Gates are only reliable for a power of two q, so other q are tested on fresh ciphertexts
+                        final boolean powerOfTwo = q.bitCount() == 1;
+                        final LWECiphertext c = (LWECiphertext) (powerOfTwo
+                                ? lwe.and(lwe.encrypt(m1, pk), lwe.encrypt(m2, pk), pk)
+                                : lwe.encrypt(m1 & m2, pk));
+
+                        for (boolean decryptionColumnsOnly : new boolean[]{false, true}) {
+                            LWESwitchedCiphertext switched = c.switchModulus(pk.getGadget(), modulus,
+                                    decryptionColumnsOnly);
+                            assertEquals("Switched ciphertext did not decrypt, for q=" + q + ", q'=" + modulus,
+                                    m1 & m2, lwe.decrypt(switched, sk));
+                        }
+                    }
+                }
+            }
+
+            LWECiphertext c = (LWECiphertext) lwe.encrypt(true, pk);
+            LWESwitchedCiphertext compact = c.switchModulus(pk.getGadget(), BigInteger.ONE.shiftLeft(10), true);
+            assertEquals("Only the decryption columns should be kept", pk.getGadget().getRows(),
+                    compact.getC().getColumns());
+            assertArrayEquals("Batched decryption should handle switched ciphertexts", new boolean[]{true, true},
+                    lwe.decrypt(new Ciphertext[]{compact, c}, sk));
+        }
+    }
+
+    @Test
+    public void testSwitchedCiphertextFromOtherParameters() {
+        FHE.KeyPair other = lwe.generateKey(new LWEParameters().setQ(BigInteger.ONE.shiftLeft(20)));
+        LWEPublicKey otherPk = (LWEPublicKey) other.getPublicKey();
+        LWECiphertext c = (LWECiphertext) lwe.encrypt(true, otherPk);
+        LWESwitchedCiphertext switched = c.switchModulus(otherPk.getGadget(), BigInteger.ONE.shiftLeft(10), true);
+        try {
+            lwe.decrypt(switched, keyPair.getSecretKey());
+            fail("Switched ciphertext from other parameters should be rejected");
+        } catch (RuntimeException e) {
+            assertEquals("Switched ciphertext must be from the parameters of the key", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testModulusSwitchingToLargerModulus() {
+        LWEPublicKey pk = (LWEPublicKey) keyPair.getPublicKey();
+        LWECiphertext c = (LWECiphertext) lwe.encrypt(true, pk);
+        c.switchModulus(pk.getGadget(), pk.getQ().shiftLeft(1), false);
+    }
 }
@@ -0,0 +1,220 @@
+package dk.mmj.fhe;
+
+import dk.mmj.fhe.interfaces.FHE;
+import dk.mmj.matrix.Gadget;
+import dk.mmj.matrix.Matrix;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.valueOf;
+import static org.junit.Assert.*;
+
+public class TestLWEWireFormat {
+    private final SecureRandom rand = new SecureRandom();
+    private final LWE lwe = new LWE();
+
+    private Matrix.Random uniform() {
+        return (bound) -> new BigInteger(bound.bitLength(), rand).mod(bound);
+    }
+
+    @Test
+    public void testCiphertextRoundTrip() {
+        for (BigInteger q : new BigInteger[]{valueOf(10_007), ONE.shiftLeft(21), ONE.shiftLeft(61).subtract(ONE),
+                ONE.shiftLeft(64), ONE.shiftLeft(70), ONE.shiftLeft(130).add(valueOf(5))}) {
+            Gadget gadget = new Gadget(4, q, 3);
+            LWECiphertext c = new LWECiphertext(new Matrix(4, gadget.getColumns(), uniform(), q));
+
+            int length = LWEWireFormat.encodedLength(c, gadget);
+            ByteBuffer buffer = ByteBuffer.allocate(length + 3);
+            buffer.put((byte) 7);
+            LWEWireFormat.encode(c, gadget, buffer);
+            assertEquals("Encoding had unexpected length, for q=" + q, length + 1, buffer.position());
+
+            buffer.flip().position(1);
+            LWECiphertext decoded = LWEWireFormat.decodeCiphertext(buffer);
+            assertEquals("Decoded ciphertext did not match, for q=" + q, c.getC(), decoded.getC());
+            assertEquals("Decoding should consume the encoding", length + 1, buffer.position());
+        }
+    }
+
+    @Test
+    public void testEntriesArePacked() {
+        BigInteger q = ONE.shiftLeft(21);
+        Gadget gadget = new Gadget(6, q);
+        LWECiphertext c = new LWECiphertext(new Matrix(6, gadget.getColumns(), uniform(), q));
+        int header = 4 + 1 + 4 + 2 + q.toByteArray().length + 2;
+
+        assertEquals("Every entry should take exactly logQ bits",
+                header + (6 * gadget.getColumns() * 21 + 7) / 8, LWEWireFormat.encodedLength(c, gadget));
+    }
+
+    @Test
+    public void testKeysRoundTrip() {
+        for (LWEParameters parameters : new LWEParameters[]{new LWEParameters().setBaseBits(2),
+                new LWEParameters().setN(8).setM(30).setSeededPublicKey(true)}) {
+            FHE.KeyPair keyPair = lwe.generateKey(parameters);
+            LWEPublicKey pk = (LWEPublicKey) keyPair.getPublicKey();
+            LWESecretKey sk = (LWESecretKey) keyPair.getSecretKey();
+
+            ByteBuffer buffer = ByteBuffer.allocate(LWEWireFormat.encodedLength(pk) + LWEWireFormat.encodedLength(sk));
+            LWEWireFormat.encode(pk, buffer);
+            LWEWireFormat.encode(sk, buffer);
+            assertFalse("Buffer should be filled exactly", buffer.hasRemaining());
+            buffer.flip();
+
+            LWEPublicKey decodedPk = LWEWireFormat.decodePublicKey(buffer);
+            LWESecretKey decodedSk = LWEWireFormat.decodeSecretKey(buffer);
+            assertEquals("Seeding should be kept", pk.isSeeded(), decodedPk.isSeeded());
+            assertEquals("Decoded public key did not match", pk.getKey(), decodedPk.getKey());
+            assertEquals("Decoded secret key did not match", sk, decodedSk);
+            assertEquals(pk.getGadget().getBaseBits(), decodedPk.getGadget().getBaseBits());
+
+            LWECiphertext c = (LWECiphertext) lwe.encrypt(true, decodedPk);
+            ByteBuffer cBuffer = ByteBuffer.allocate(LWEWireFormat.encodedLength(c, decodedPk.getGadget()));
+            LWEWireFormat.encode(c, decodedPk.getGadget(), cBuffer);
+            cBuffer.flip();
+            assertTrue("Decoded ciphertext under decoded keys should decrypt",
+                    lwe.decrypt(LWEWireFormat.decodeCiphertext(cBuffer), decodedSk));
+        }
+    }
+
+    @Test
+    public void testSeededKeyIsSmall() {
+        FHE.KeyPair keyPair = lwe.generateKey(new LWEParameters().setN(100).setM(100).setSeededPublicKey(true));
+        LWEPublicKey pk = (LWEPublicKey) keyPair.getPublicKey();
+
+        assertTrue("Seeded key should only hold its last row",
+                LWEWireFormat.encodedLength(pk) < 100 * 21 / 8 + 100);
+    }
+
+    @Test
+    public void testSwitchedCiphertextRoundTrip() {
+        FHE.KeyPair keyPair = lwe.generateKey(new LWEParameters().setSmallSecret(true));
+        LWEPublicKey pk = (LWEPublicKey) keyPair.getPublicKey();
+        Gadget gadget = pk.getGadget();
+        LWECiphertext c = (LWECiphertext) lwe.encrypt(true, pk);
+
+        for (boolean decryptionColumnsOnly : new boolean[]{false, true}) {
+            LWESwitchedCiphertext switched = c.switchModulus(gadget, valueOf(1 << 10), decryptionColumnsOnly);
+            ByteBuffer buffer = ByteBuffer.allocate(LWEWireFormat.encodedLength(switched));
+            LWEWireFormat.encode(switched, buffer);
+            assertFalse("Buffer should be filled exactly", buffer.hasRemaining());
+            assertTrue("Switched ciphertext should encode smaller than the ciphertext",
+                    buffer.capacity() < LWEWireFormat.encodedLength(c, gadget));
+
+            buffer.flip();
+            LWESwitchedCiphertext decoded = LWEWireFormat.decodeSwitchedCiphertext(buffer);
+            assertEquals("Decoded switched ciphertext did not match", switched.getC(), decoded.getC());
+            assertEquals(switched.getModulus(), decoded.getModulus());
+            assertEquals(decryptionColumnsOnly, decoded.isDecryptionColumnsOnly());
+            assertTrue("Decoded switched ciphertext should decrypt", lwe.decrypt(decoded, keyPair.getSecretKey()));
+        }
+    }
+
+    @Test
+    public void testMalformedInput() {
+        BigInteger q = ONE.shiftLeft(21);
+        Gadget gadget = new Gadget(3, q);
+        LWECiphertext c = new LWECiphertext(new Matrix(3, gadget.getColumns(), uniform(), q));
+        ByteBuffer buffer = ByteBuffer.allocate(LWEWireFormat.encodedLength(c, gadget));
+        LWEWireFormat.encode(c, gadget, buffer);
+
+        buffer.flip();
+        try {
+            LWEWireFormat.decodeSecretKey(buffer);
+            fail("Ciphertext should not decode as a secret key");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Position should be unchanged", 0, buffer.position());
+        }
+
+        buffer.put(0, (byte) 0);
+        try {
+            LWEWireFormat.decodeCiphertext(buffer);
+            fail("Bad magic should be rejected");
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        ByteBuffer truncated = ByteBuffer.allocate(LWEWireFormat.encodedLength(c, gadget));
+        LWEWireFormat.encode(c, gadget, truncated);
+        truncated.flip().limit(truncated.limit() - 10);
+        try {
+            LWEWireFormat.decodeCiphertext(truncated);
+            fail("Truncated encoding should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Position should be unchanged", 0, truncated.position());
+        }
+    }
+
+    @Test
+    public void testHugeDimensionsRejected() {
+        BigInteger q = ONE.shiftLeft(21);
+        Gadget gadget = new Gadget(3, q);
+        LWECiphertext c = new LWECiphertext(new Matrix(3, gadget.getColumns(), uniform(), q));
+        ByteBuffer buffer = ByteBuffer.allocate(LWEWireFormat.encodedLength(c, gadget));
+        LWEWireFormat.encode(c, gadget, buffer);
+        buffer.flip();
+
+        //Rows follow magic, version and type. Columns of the gadget, or the number of entries, overflow an int
+        for (int rows : new int[]{1 << 28, 1 << 16}) {
+            buffer.putInt(Integer.BYTES + 1, rows);
+            try {
+                LWEWireFormat.decodeCiphertext(buffer);
+                fail("Ciphertext with " + rows + " rows should be rejected");
+            } catch (IllegalArgumentException e) {
+                assertEquals("Position should be unchanged", 0, buffer.position());
+            }
+        }
+
+        FHE.KeyPair keyPair = lwe.generateKey(new LWEParameters().setN(20).setSeededPublicKey(true));
+        LWEPublicKey pk = (LWEPublicKey) keyPair.getPublicKey();
+        ByteBuffer pkBuffer = ByteBuffer.allocate(LWEWireFormat.encodedLength(pk));
+        LWEWireFormat.encode(pk, pkBuffer);
+        pkBuffer.flip();
+        //Columns follow the header, which ends with q, base bits and dropped digits
+        int columnsPosition = Integer.BYTES + 1 + Integer.BYTES + Short.BYTES + pkBuffer.getShort(9) + 2;
+        pkBuffer.putInt(columnsPosition, 1 << 30);
+        try {
+            LWEWireFormat.decodePublicKey(pkBuffer);
+            fail("Public key declaring more entries than the buffer holds should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Position should be unchanged", 0, pkBuffer.position());
+        }
+    }
+
+    @Test
+    public void testTruncatedKeys() {
+        FHE.KeyPair keyPair = lwe.generateKey(new LWEParameters().setN(20).setSeededPublicKey(true));
+        LWEPublicKey pk = (LWEPublicKey) keyPair.getPublicKey();
+        LWESecretKey sk = (LWESecretKey) keyPair.getSecretKey();
+
+        ByteBuffer skBuffer = ByteBuffer.allocate(LWEWireFormat.encodedLength(sk));
+        LWEWireFormat.encode(sk, skBuffer);
+        skBuffer.flip().limit(skBuffer.limit() - 1);
+        try {
+            LWEWireFormat.decodeSecretKey(skBuffer);
+            fail("Truncated secret key should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Position should be unchanged", 0, skBuffer.position());
+        }
+
+        ByteBuffer pkBuffer = ByteBuffer.allocate(LWEWireFormat.encodedLength(pk));
+        LWEWireFormat.encode(pk, pkBuffer);
+        pkBuffer.flip();
+        byte[] seed = pk.getSeed();
+        int seedStart = 0;
+        while (!ByteBuffer.wrap(seed).equals(ByteBuffer.wrap(pkBuffer.array(), seedStart, seed.length))) {
+            seedStart++;
+        }
+        pkBuffer.limit(seedStart + seed.length / 2);
+        try {
+            LWEWireFormat.decodePublicKey(pkBuffer);
+            fail("Truncated seed should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Position should be unchanged", 0, pkBuffer.position());
+        }
+    }
+}
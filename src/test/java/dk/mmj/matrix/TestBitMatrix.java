@@ -0,0 +1,114 @@
+package dk.mmj.matrix;
+
+import dk.mmj.sampling.UniformSampler;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import static java.math.BigInteger.*;
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestBitMatrix {
+    private final SecureRandom rand = new SecureRandom();
+
+    private Matrix.Random uniform() {
+        return (bound) -> new BigInteger(bound.bitLength(), rand).mod(bound);
+    }
+
+    private static Matrix unpacked(Matrix m) {
+        BigInteger[][] rows = new BigInteger[m.getRows()][];
+        for (int row = 0; row < m.getRows(); row++) {
+            rows[row] = m.getRow(row);
+        }
+        return new Matrix(rows);
+    }
+
+    @Test
+    public void testEntries() {
+        BitMatrix bits = new BitMatrix(130, 3);
+        bits.set(0, 0);
+        bits.set(63, 1);
+        bits.set(64, 1);
+        bits.set(129, 2);
+
+        assertEquals(ONE, bits.get(0, 0));
+        assertEquals(ONE, bits.get(63, 1));
+        assertEquals(ONE, bits.get(64, 1));
+        assertEquals(ONE, bits.get(129, 2));
+        assertEquals(ZERO, bits.get(1, 0));
+        assertEquals(ZERO, bits.get(0, 1));
+        assertEquals(ZERO, bits.get(128, 2));
+    }
+
+    @Test
+    public void testSetBitsAcrossWords() {
+        BitMatrix bits = new BitMatrix(200, 2);
+        long value = 0xDEADBEEFCAFEL;
+        bits.setBits(40, 1, value, 48);
+
+        for (int i = 0; i < 200; i++) {
+            boolean expected = i >= 40 && i < 88 && (value >>> (i - 40) & 1) == 1;
+            assertEquals("Unexpected bit at row " + i, expected ? ONE : ZERO, bits.get(i, 1));
+            assertEquals("Bits leaked into other column", ZERO, bits.get(i, 0));
+        }
+    }
+
+    @Test
+    public void testEqualsUnpacked() {
+        BitMatrix bits = new BitMatrix(70, 5, uniform());
+        Matrix unpacked = unpacked(bits);
+
+        assertEquals("BitMatrix should equal its unpacked counterpart", unpacked, bits);
+        assertEquals("Unpacked matrix should equal its BitMatrix counterpart", bits, unpacked);
+        assertEquals("Hash codes should match", unpacked.hashCode(), bits.hashCode());
+        assertEquals("Transposes should match", unpacked.transpose(), bits.transpose());
+    }
+
+    @Test
+    public void testMultiplicationMatchesUnpacked() {
+        BigInteger[] moduli = {valueOf(10_000), ONE.shiftLeft(21), ONE.shiftLeft(64),
+                ONE.shiftLeft(61).subtract(ONE), ONE.shiftLeft(100)};
+        for (BigInteger q : moduli) {
+            Matrix a = new Matrix(6, 150, uniform(), q);
+            BitMatrix bits = new BitMatrix(150, 30, uniform());
+
+            assertEquals("Packed multiplication did not match general multiplication, for q=" + q,
+                    a.multiply(unpacked(bits), q), a.multiply(bits, q));
+        }
+    }
+
+    @Test
+    public void testElementwiseOperations() {
+        BigInteger q = ONE.shiftLeft(21);
+        Matrix a = new Matrix(40, 3, uniform(), q);
+        BitMatrix bits = new BitMatrix(40, 3, uniform());
+        Matrix unpacked = unpacked(bits);
+
+        assertEquals(a.add(unpacked, q), a.add(bits, q));
+        assertEquals(unpacked.subtract(a, q), bits.subtract(a, q));
+        assertEquals(unpacked.negate(q), bits.negate(q));
+        assertEquals(unpacked.multiply(a.transpose(), q), bits.multiply(a.transpose(), q));
+    }
+
+    @Test
+    public void testGInverseIsPacked() {
+        BigInteger q = ONE.shiftLeft(70);
+        Matrix m = new Matrix(3, 5, uniform(), q);
+        BitMatrix gInverse = LWEUtils.calculateGInverse(m, q);
+
+        assertTrue("G^-1 should be binary", gInverse.isBinary());
+        assertEquals("G * G^-1(m) should be m", m, LWEUtils.createG(3, q).multiply(gInverse, q));
+    }
+
+    @Test
+    public void testBulkRandomBits() {
+        BitMatrix bits = new BitMatrix(70, 40, new UniformSampler(rand));
+        Matrix unpacked = unpacked(bits);
+
+        assertEquals("Bits beyond the last row should not be set", unpacked, bits);
+        assertEquals("Hash codes should match", unpacked.hashCode(), bits.hashCode());
+        assertEquals("Column ranges should match", unpacked.columnRange(3, 9), bits.columnRange(3, 9));
+    }
+}
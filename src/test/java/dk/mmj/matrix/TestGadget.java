@@ -0,0 +1,161 @@
+package dk.mmj.matrix;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import static java.math.BigInteger.*;
+import static junit.framework.TestCase.assertEquals;
+
+public class TestGadget {
+    private static final BigInteger[] MODULI = {ONE.shiftLeft(21), ONE.shiftLeft(64), ONE.shiftLeft(70)};
+    private static final int[] BASE_BITS = {1, 4, 7, 13};
+    private final SecureRandom rand = new SecureRandom();
+
+    private Matrix.Random uniform() {
+        return (bound) -> new BigInteger(bound.bitLength(), rand).mod(bound);
+    }
+
+    @Test
+    public void testDimensions() {
+        Gadget gadget = new Gadget(6, ONE.shiftLeft(21));
+        Matrix g = gadget.toMatrix();
+
+        assertEquals(g.getRows(), gadget.getRows());
+        assertEquals(g.getColumns(), gadget.getColumns());
+
+        //20 low bits in 5 digits of 4 bits, and the most significant bit on its own
+        Gadget base16 = new Gadget(6, ONE.shiftLeft(21), 4);
+        assertEquals("Unexpected number of digits", 6, base16.getDigits());
+        assertEquals("Unexpected width", 6 * 6, base16.getColumns());
+        assertEquals("Unexpected width of explicit G", base16.getColumns(), base16.toMatrix().getColumns());
+        assertEquals("Unexpected most significant column", 2 * 6 + 5, base16.mostSignificantColumn(2));
+        assertEquals("Most significant entry should be q/2", ONE.shiftLeft(20), base16.toMatrix().get(2, 17));
+    }
+
+    @Test
+    public void testAddToMatchesExplicit() {
+        for (BigInteger q : MODULI) {
+            for (int baseBits : BASE_BITS) {
+                Gadget gadget = new Gadget(4, q, baseBits);
+                Matrix c = new Matrix(4, gadget.getColumns(), uniform(), q);
+                Matrix g = gadget.toMatrix();
+                String params = " for q=" + q + ", baseBits=" + baseBits;
+
+                assertEquals("x=1 did not match" + params, c.add(g, q), gadget.addTo(c, ONE));
+                assertEquals("x=0 did not match" + params, c, gadget.addTo(c, ZERO));
+                BigInteger x = valueOf(12345);
+                assertEquals("x=" + x + " did not match" + params, c.add(g.multiply(x, q), q), gadget.addTo(c, x));
+            }
+        }
+    }
+
+    @Test
+    public void testAddToLeavesInputUnchanged() {
+        for (BigInteger q : MODULI) {
+            Gadget gadget = new Gadget(3, q, 4);
+            Matrix compact = new Matrix(3, gadget.getColumns(), uniform(), q).reduce(q);
+            Matrix wide = new Matrix(3, 2 * gadget.getColumns(), uniform(), q).reduce(q);
+            Matrix view = wide.columnRange(gadget.getColumns(), 2 * gadget.getColumns());
+
+            for (Matrix c : new Matrix[]{compact, view}) {
+                Matrix before = c.reduce(q);
+                Matrix sum = gadget.addTo(c, ONE);
+                assertEquals("Input of addTo should be unchanged, for q=" + q, before, c);
+                assertEquals("Sum did not match, for q=" + q, before.add(gadget.toMatrix(), q), sum);
+            }
+        }
+    }
+
+    @Test
+    public void testSubtractMatchesExplicit() {
+        for (BigInteger q : MODULI) {
+            for (int baseBits : BASE_BITS) {
+                Gadget gadget = new Gadget(4, q, baseBits);
+                Matrix c = new Matrix(4, gadget.getColumns(), uniform(), q);
+
+                assertEquals("G - C did not match for q=" + q + ", baseBits=" + baseBits,
+                        gadget.toMatrix().subtract(c, q), gadget.subtract(c));
+            }
+        }
+    }
+
+    @Test
+    public void testLeftMultiplyMatchesExplicit() {
+        for (BigInteger q : MODULI) {
+            for (int baseBits : BASE_BITS) {
+                Gadget gadget = new Gadget(4, q, baseBits);
+                Matrix s = new Matrix(2, 4, uniform(), q);
+
+                assertEquals("S*G did not match for q=" + q + ", baseBits=" + baseBits,
+                        s.multiply(gadget.toMatrix(), q), gadget.leftMultiply(s));
+            }
+        }
+    }
+
+    @Test
+    public void testMultiplyInverseMatchesExplicit() {
+        for (BigInteger q : new BigInteger[]{valueOf(10_000), ONE.shiftLeft(21), ONE.shiftLeft(64), ONE.shiftLeft(70)}) {
+            for (int baseBits : BASE_BITS) {
+                Gadget gadget = new Gadget(4, q, baseBits);
+                Matrix c = new Matrix(4, gadget.getColumns(), uniform(), q);
+                Matrix m = new Matrix(4, gadget.getColumns(), uniform(), q);
+
+                assertEquals("C*G^-1(M) did not match for q=" + q + ", baseBits=" + baseBits,
+                        c.multiply(LWEUtils.calculateGInverse(m, q, baseBits), q), gadget.multiplyInverse(c, m));
+            }
+        }
+    }
+
+    @Test
+    public void testInverseRecomposes() {
+        BigInteger q = ONE.shiftLeft(21);
+        for (int baseBits : BASE_BITS) {
+            Gadget gadget = new Gadget(4, q, baseBits);
+            Matrix m = new Matrix(4, 9, uniform(), q);
+
+            assertEquals("G*G^-1(M) should be M, for baseBits=" + baseBits,
+                    m, gadget.toMatrix().multiply(LWEUtils.calculateGInverse(m, q, baseBits), q));
+        }
+    }
+
+    @Test
+    public void testApproximateGadgetMatchesExplicit() {
+        BigInteger q = ONE.shiftLeft(21);
+        for (int baseBits : BASE_BITS) {
+            for (int dropped : new int[]{1, 2}) {
+                Gadget gadget = new Gadget(4, q, baseBits, dropped);
+                Matrix c = new Matrix(4, gadget.getColumns(), uniform(), q);
+                Matrix m = new Matrix(4, 9, uniform(), q);
+                String params = " for baseBits=" + baseBits + ", dropped=" + dropped;
+
+                assertEquals("Unexpected width" + params,
+                        4 * (LWEUtils.digits(21, baseBits) - dropped), gadget.getColumns());
+                assertEquals("C*G^-1(M) did not match" + params,
+                        c.multiply(LWEUtils.calculateGInverse(m, q, baseBits, dropped), q), gadget.multiplyInverse(c, m));
+                assertEquals("G - C did not match" + params, gadget.toMatrix().subtract(c, q), gadget.subtract(c));
+
+                //G*G^-1(M) equals M, except for the dropped low-order bits
+                BigInteger precision = ONE.shiftLeft(LWEUtils.gadgetExponent(dropped, 21, baseBits));
+                Matrix recomposed = gadget.toMatrix().multiply(LWEUtils.calculateGInverse(m, q, baseBits, dropped), q);
+                for (int row = 0; row < m.getRows(); row++) {
+                    for (int col = 0; col < m.getColumns(); col++) {
+                        BigInteger expected = m.get(row, col).subtract(m.get(row, col).mod(precision));
+                        assertEquals("G*G^-1(M) should truncate M" + params, expected, recomposed.get(row, col));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = MalformedMatrixException.class)
+    public void testDimensionMismatch() {
+        new Gadget(4, ONE.shiftLeft(21)).subtract(new Matrix(4, 3, uniform(), ONE.shiftLeft(21)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBaseTooLarge() {
+        new Gadget(4, ONE.shiftLeft(21), 22);
+    }
+}
@@ -0,0 +1,92 @@
+package dk.mmj.matrix;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static java.math.BigInteger.ONE;
+import static org.junit.Assert.*;
+
+public class TestGadgetCache {
+    private static final BigInteger Q = ONE.shiftLeft(21);
+
+    @Test
+    public void testHitsAndMisses() {
+        GadgetCache cache = new GadgetCache(4);
+        AtomicInteger builds = new AtomicInteger();
+
+        Matrix first = cache.get(3, Q, 1, 0, () -> {
+            builds.incrementAndGet();
+            return LWEUtils.createG(3, Q);
+        });
+        Matrix second = cache.get(3, Q, 1, 0, () -> {
+            builds.incrementAndGet();
+            return LWEUtils.createG(3, Q);
+        });
+
+        assertSame("Second lookup should return the cached matrix", first, second);
+        assertEquals("G should only be built once", 1, builds.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0);
+    }
+
+    @Test
+    public void testAlternatingParameters() {
+        GadgetCache cache = new GadgetCache(4);
+        for (int i = 0; i < 10; i++) {
+            for (int baseBits : new int[]{1, 4}) {
+                cache.get(3, Q, baseBits, 0, () -> LWEUtils.createG(3, Q, baseBits));
+            }
+        }
+
+        assertEquals("Every set of parameters should only miss once", 2, cache.getMisses());
+        assertEquals(18, cache.getHits());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        GadgetCache cache = new GadgetCache(2);
+        Matrix one = cache.get(1, Q, 1, 0, () -> LWEUtils.createG(1, Q));
+        cache.get(2, Q, 1, 0, () -> LWEUtils.createG(2, Q));
+        assertSame(one, cache.get(1, Q, 1, 0, () -> LWEUtils.createG(1, Q)));
+        cache.get(3, Q, 1, 0, () -> LWEUtils.createG(3, Q));
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+        long misses = cache.getMisses();
+        assertSame("Recently used matrix should be kept", one, cache.get(1, Q, 1, 0, () -> null));
+        cache.get(2, Q, 1, 0, () -> LWEUtils.createG(2, Q));
+        assertEquals("Least recently used matrix should have been evicted", misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void testConcurrentUse() {
+        GadgetCache cache = new GadgetCache(3);
+        IntStream.range(0, 1000).parallel().forEach(i -> {
+            int n = 1 + i % 5;
+            Matrix g = cache.get(n, Q, 1, 0, () -> LWEUtils.createG(n, Q));
+            assertEquals("Cached G had wrong dimensions", n, g.getRows());
+        });
+
+        assertEquals(1000, cache.getHits() + cache.getMisses());
+        assertTrue("Cache should stay within its capacity", cache.size() <= 3);
+    }
+
+    @Test
+    public void testSharedCache() {
+        Matrix g = LWEUtils.createG(4, Q, 3);
+        long hits = LWEUtils.getGadgetCache().getHits();
+
+        assertSame(g, LWEUtils.createG(4, Q, 3));
+        assertTrue(LWEUtils.getGadgetCache().getHits() > hits);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new GadgetCache(0);
+    }
+}
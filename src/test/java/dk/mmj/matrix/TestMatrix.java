@@ -3,17 +3,21 @@ package dk.mmj.matrix;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.nio.LongBuffer;
 import java.security.SecureRandom;
 
 import static java.math.BigInteger.*;
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotEquals;
 
 public class TestMatrix {
 
     public static final BigInteger MODULO = new BigInteger("1000000");
+    private final SecureRandom rand = new SecureRandom();
+    private final Matrix.Random random = (bound) -> new BigInteger(bound.bitLength(), rand).mod(bound);
 
     @Test
     public void testMatrixSize() {
@@ -323,4 +327,303 @@ public class TestMatrix {
         assertEquals("Transpose not working", expected, org.transpose());
     }
 
+
+    @Test
+    public void testWordMultiplicationMatchesBigInteger() {
+        for (BigInteger q : new BigInteger[]{valueOf(10_000), ONE.shiftLeft(21), ONE.shiftLeft(61).subtract(ONE), ONE.shiftLeft(64)}) {
+            Matrix a = new Matrix(7, 9, random, q);
+            Matrix b = new Matrix(9, 4, random, q);
+
+            BigInteger[][] expectedInner = new BigInteger[7][4];
+            for (int row = 0; row < 7; row++) {
+                for (int col = 0; col < 4; col++) {
+                    BigInteger acc = ZERO;
+                    for (int i = 0; i < 9; i++) {
+                        acc = acc.add(a.get(row, i).multiply(b.get(i, col)));
+                    }
+                    expectedInner[row][col] = acc.mod(q);
+                }
+            }
+
+            assertEquals("Word multiplication did not match BigInteger multiplication, for q=" + q,
+                    new Matrix(expectedInner), a.multiply(b, q));
+        }
+    }
+
+    @Test
+    public void testWordArithmeticLargeModulus() {
+        BigInteger q = ONE.shiftLeft(62).subtract(valueOf(57));
+        BigInteger big = q.subtract(valueOf(3));
+        BigInteger[][] inner = {
+                {big, valueOf(2)},
+                {valueOf(5), big},
+        };
+        Matrix matrix = new Matrix(inner);
+
+        assertEquals("Addition did not wrap around modulus",
+                big.add(big).mod(q), matrix.add(matrix, q).get(0, 0));
+        assertEquals("Negation was wrong", q.subtract(big), matrix.negate(q).get(1, 1));
+        assertEquals("Multiplication with constant was wrong",
+                big.multiply(big).mod(q), matrix.multiply(big, q).get(0, 0));
+        assertEquals("Subtraction was wrong", valueOf(2).subtract(valueOf(5)).mod(q), matrix.subtract(matrix.transpose(), q).get(0, 1));
+    }
+
+    @Test
+    public void testWordAndBigIntegerMatricesEqual() {
+        BigInteger q = valueOf(97);
+        Matrix words = new Matrix(2, 2, (bound) -> valueOf(42), q);
+        Matrix bigIntegers = new Matrix(new BigInteger[][]{
+                {valueOf(42), valueOf(42)},
+                {valueOf(42), valueOf(42)}
+        });
+
+        assertEquals("Representation should not affect equality", bigIntegers, words);
+        assertEquals("Representation should not affect hashCode", bigIntegers.hashCode(), words.hashCode());
+        assertEquals("Representation should not affect toString", bigIntegers.toString(), words.toString());
+    }
+
+
+    @Test
+    public void testPowerOfTwoModulusWrapsAround() {
+        BigInteger q = ONE.shiftLeft(64);
+        BigInteger big = q.subtract(valueOf(3));
+        Matrix matrix = new Matrix(new BigInteger[][]{
+                {big, valueOf(2)},
+                {valueOf(5), big},
+        });
+
+        assertEquals("Multiplication was wrong", new Matrix(new BigInteger[][]{
+                {big.multiply(big).add(valueOf(10)).mod(q), big.multiply(valueOf(2)).add(valueOf(2).multiply(big)).mod(q)},
+                {valueOf(5).multiply(big).add(big.multiply(valueOf(5))).mod(q), valueOf(10).add(big.multiply(big)).mod(q)}
+        }), matrix.multiply(matrix, q));
+        assertEquals("Negation was wrong", valueOf(3), matrix.negate(q).get(0, 0));
+        assertEquals("Addition was wrong", big.add(big).mod(q), matrix.add(matrix, q).get(1, 1));
+    }
+
+
+    @Test
+    public void testMixedLayouts() {
+        BigInteger q = ONE.shiftLeft(21);
+        //Random matrices are column-major, while matrices from explicit data are row-major
+        Matrix columnMajor = new Matrix(3, 4, random, q);
+        Matrix rowMajor = new Matrix(new BigInteger[][]{
+                columnMajor.getRow(0), columnMajor.getRow(1), columnMajor.getRow(2)
+        }).negate(q).negate(q);
+
+        assertEquals("Layout should not affect equality", columnMajor, rowMajor);
+        assertEquals("Transpose of transpose should be original", columnMajor, columnMajor.transpose().transpose());
+        assertEquals("Layout should not affect addition",
+                columnMajor.add(columnMajor, q), rowMajor.add(columnMajor, q));
+        assertEquals("Layout should not affect multiplication",
+                columnMajor.multiply(rowMajor.transpose(), q), rowMajor.multiply(columnMajor.transpose(), q));
+        assertEquals("Layout should not affect adding rows",
+                columnMajor.addRow(columnMajor.getRow(1)), rowMajor.addRow(rowMajor.getRow(1)));
+        assertEquals("Layout should not affect adding columns",
+                columnMajor.transpose().addColumn(columnMajor.getRow(2)), rowMajor.transpose().addColumn(rowMajor.getRow(2)));
+    }
+
+
+    @Test
+    public void testTiledMultiplicationMatchesUntiled() {
+        for (BigInteger q : new BigInteger[]{valueOf(10_000), valueOf(Integer.MAX_VALUE), ONE.shiftLeft(21), ONE.shiftLeft(61).subtract(ONE)}) {
+            Matrix a = new Matrix(40, 700, random, q);
+            Matrix b = new Matrix(700, 90, random, q);
+
+            Matrix tiled = a.multiply(b, q);
+            a.disableTiling();
+            Matrix untiled = a.multiply(b, q);
+
+            assertEquals("Tiled multiplication did not match untiled, for q=" + q, untiled, tiled);
+        }
+    }
+
+
+    @Test
+    public void testBinaryMultiplicationMatchesGeneral() {
+        for (BigInteger q : new BigInteger[]{valueOf(10_000), ONE.shiftLeft(21), ONE.shiftLeft(61).subtract(ONE)}) {
+            Matrix a = new Matrix(6, 50, random, q);
+            Matrix bits = new Matrix(50, 30, random, valueOf(2));
+            assertTrue("Random matrix mod 2 should be known as binary", bits.isBinary());
+
+            BigInteger[][] general = new BigInteger[50][];
+            for (int row = 0; row < 50; row++) {
+                general[row] = bits.getRow(row);
+            }
+
+            assertEquals("Binary multiplication did not match general multiplication, for q=" + q,
+                    a.multiply(new Matrix(general), q), a.multiply(bits, q));
+        }
+    }
+
+    @Test
+    public void testVectorMatrixMultiplication() {
+        for (BigInteger q : new BigInteger[]{valueOf(10_000), ONE.shiftLeft(21), ONE.shiftLeft(61).subtract(ONE), ONE.shiftLeft(70)}) {
+            Matrix v = new Matrix(1, 130, random, q);
+            Matrix[] others = {
+                    new Matrix(130, 50, random, q),
+                    new Matrix(130, 50, random, valueOf(2)),
+                    new BitMatrix(130, 50, random)
+            };
+
+            for (Matrix other : others) {
+                Matrix res = v.multiply(other, q);
+                for (int col = 0; col < other.getColumns(); col++) {
+                    BigInteger[] column = other.transpose().getRow(col);
+                    assertEquals("Vector-matrix product did not match inner product, for q=" + q,
+                            LWEUtils.innerProduct(v.getRow(0), column).mod(q), res.get(0, col));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMultiplySelectedColumns() {
+        int[] columns = {49, 0, 17, 17};
+        for (BigInteger q : new BigInteger[]{valueOf(10_000), ONE.shiftLeft(21), ONE.shiftLeft(61).subtract(ONE), ONE.shiftLeft(70)}) {
+            Matrix a = new Matrix(2, 130, random, q);
+            Matrix[] others = {
+                    new Matrix(130, 50, random, q),
+                    new Matrix(50, 130, random, q).transpose(),
+                    new BitMatrix(130, 50, random)
+            };
+
+            for (Matrix other : others) {
+                Matrix full = a.multiply(other, q);
+                Matrix selected = a.multiplyColumns(other, columns, q);
+                for (int row = 0; row < a.getRows(); row++) {
+                    for (int i = 0; i < columns.length; i++) {
+                        assertEquals("Selected column did not match full product, for q=" + q,
+                                full.get(row, columns[i]), selected.get(row, i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBufferMatrixColumns() {
+        int[] columns = {49, 0, 17, 17};
+        for (BigInteger q : new BigInteger[]{valueOf(10_000), ONE.shiftLeft(21), ONE.shiftLeft(64)}) {
+            Matrix a = new Matrix(2, 130, random, q);
+            Matrix words = new Matrix(130, 50, random, q);
+            BufferMatrix buffer = new BufferMatrix(130, 50, LongBuffer.wrap(words.toWords(q)), q);
+            buffer.disableConcurrency();
+
+            for (BigInteger modulo : new BigInteger[]{q, valueOf(7)}) {
+                assertEquals("Product with buffer columns did not match, for q=" + q + ", modulo=" + modulo,
+                        a.multiplyColumns(words, columns, modulo), a.multiplyColumns(buffer, columns, modulo));
+                assertEquals("Selected buffer columns did not match, for q=" + q + ", modulo=" + modulo,
+                        Matrix.selectColumns(new Matrix[]{words, words}, columns, modulo),
+                        Matrix.selectColumns(new Matrix[]{buffer, words}, columns, modulo));
+            }
+        }
+    }
+
+    @Test(expected = MalformedMatrixException.class)
+    public void testMultiplySelectedColumnOutOfRange() {
+        Matrix a = new Matrix(new BigInteger[][]{{ONE, ONE}});
+        a.multiplyColumns(a.transpose(), new int[]{1}, valueOf(7));
+    }
+
+    @Test
+    public void testReduce() {
+        BigInteger[][] entries = {{valueOf(15), valueOf(-3)}, {valueOf(7), ONE.shiftLeft(80)}};
+        for (BigInteger q : new BigInteger[]{valueOf(7), ONE.shiftLeft(3), ONE.shiftLeft(70)}) {
+            Matrix reduced = new Matrix(entries).transpose().reduce(q);
+            for (int row = 0; row < 2; row++) {
+                for (int col = 0; col < 2; col++) {
+                    assertEquals("Entry was not reduced, for q=" + q, entries[col][row].mod(q), reduced.get(row, col));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWordsModuloFromFullWords() {
+        BigInteger from = ONE.shiftLeft(64);
+        BigInteger q = ONE.shiftLeft(63).subtract(valueOf(25));
+        long[] entries = {-1L, Long.MIN_VALUE, Long.MIN_VALUE + 24, Long.MIN_VALUE + 25, 5, Long.MAX_VALUE};
+        Matrix matrix = Matrix.fromWords(2, 3, entries, from);
+
+        long[] reduced = matrix.wordsModulo(WordArithmetic.forModulus(q), q, false);
+        for (int i = 0; i < entries.length; i++) {
+            BigInteger expected = new BigInteger(Long.toUnsignedString(entries[i])).mod(q);
+            assertEquals("Entry " + Long.toUnsignedString(entries[i]) + " was not reduced", expected,
+                    valueOf(reduced[i]));
+        }
+    }
+
+    @Test
+    public void testSelectColumns() {
+        int[] columns = {4, 1};
+        for (BigInteger q : new BigInteger[]{valueOf(10_000), ONE.shiftLeft(70)}) {
+            Matrix[] matrices = {
+                    new Matrix(3, 5, random, q),
+                    new Matrix(5, 3, random, q.shiftLeft(1)).transpose(),
+                    new BitMatrix(3, 5, random)
+            };
+
+            Matrix selected = Matrix.selectColumns(matrices, columns, q);
+            assertEquals("Unexpected width", matrices.length * columns.length, selected.getColumns());
+            for (int m = 0; m < matrices.length; m++) {
+                for (int j = 0; j < columns.length; j++) {
+                    for (int row = 0; row < 3; row++) {
+                        assertEquals("Selected entry did not match, for q=" + q,
+                                matrices[m].get(row, columns[j]).mod(q), selected.get(row, m * columns.length + j));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testColumnRange() {
+        BigInteger[][] entries = {{ONE, valueOf(2), valueOf(3)}, {valueOf(4), valueOf(5), valueOf(6)}};
+        Matrix a = new Matrix(entries);
+
+        assertEquals(new Matrix(new BigInteger[][]{{valueOf(2), valueOf(3)}, {valueOf(5), valueOf(6)}}), a.columnRange(1, 3));
+        assertEquals(new Matrix(new BigInteger[][]{{valueOf(4)}, {valueOf(5)}, {valueOf(6)}}), a.transpose().columnRange(1, 2));
+        assertEquals(0, a.columnRange(2, 2).getColumns());
+    }
+
+    @Test
+    public void testStackRows() {
+        BigInteger[][] entries = {{ONE, valueOf(2)}, {valueOf(3), valueOf(4)}, {valueOf(5), valueOf(6)}};
+        Matrix full = new Matrix(entries);
+        for (BigInteger q : new BigInteger[]{valueOf(5), ONE.shiftLeft(70)}) {
+            Matrix stacked = Matrix.stackRows(new Matrix[]{full.columnRange(0, 2).transpose().transpose(),
+                    full.transpose().columnRange(1, 3).transpose()}, q);
+
+            assertEquals("Unexpected height", 5, stacked.getRows());
+            assertEquals(ONE.mod(q), stacked.get(0, 0));
+            assertEquals(valueOf(6).mod(q), stacked.get(2, 1));
+            assertEquals(valueOf(3).mod(q), stacked.get(3, 0));
+            assertEquals(valueOf(6).mod(q), stacked.get(4, 1));
+        }
+    }
+
+    @Test
+    public void testColumnRangeOfRowVector() {
+        BigInteger q = valueOf(97);
+        Matrix words = Matrix.fromWords(1, 5, new long[]{1, 2, 3, 4, 5}, q).columnRange(0, 3);
+        assertArrayEquals("Only the entries of the range should be serialized", new long[]{1, 2, 3},
+                words.toWords(q));
+        assertArrayEquals("Reducing should keep only the entries of the range", new long[]{1, 2, 3},
+                words.reduce(q).toWords(q));
+
+        Matrix stacked = Matrix.stackRows(new Matrix[]{words, words}, q);
+        assertEquals(new Matrix(new BigInteger[][]{{ONE, valueOf(2), valueOf(3)}, {ONE, valueOf(2), valueOf(3)}}),
+                stacked);
+
+        BigInteger large = ONE.shiftLeft(70);
+        BigInteger[] entries = new BigInteger[5];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = ONE.shiftLeft(65).add(valueOf(i));
+        }
+        Matrix bigIntegers = Matrix.fromEntries(1, 5, entries).columnRange(0, 3);
+        Matrix stackedLarge = Matrix.stackRows(new Matrix[]{bigIntegers, bigIntegers}, large);
+        assertEquals("Unexpected width", 3, stackedLarge.getColumns());
+        assertEquals(entries[2], stackedLarge.get(1, 2));
+        assertEquals(3, bigIntegers.reduce(large).getColumns());
+    }
 }
@@ -0,0 +1,72 @@
+package dk.mmj.sampling;
+
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TestCounterModeGenerator {
+    private final byte[] seed = CounterModeGenerator.newSeed(new SecureRandom());
+
+    private static long[] read(CounterModeGenerator.Stream stream, int length) {
+        long[] res = new long[length];
+        for (int i = 0; i < length; i++) {
+            res[i] = stream.nextWord();
+        }
+        return res;
+    }
+
+    @Test
+    public void testMatchesAesCounterMode() throws Exception {
+        byte[] iv = new byte[16];
+        ByteBuffer.wrap(iv).putLong(7);
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(seed, "AES"), new IvParameterSpec(iv));
+        //Crosses the internal buffer of the stream
+        long[] expected = new long[1000];
+        ByteBuffer.wrap(cipher.doFinal(new byte[expected.length * Long.BYTES])).asLongBuffer().get(expected);
+
+        assertArrayEquals("Stream should be the AES-CTR keystream",
+                expected, read(new CounterModeGenerator(seed).stream(7), expected.length));
+    }
+
+    @Test
+    public void testStreams() {
+        CounterModeGenerator generator = new CounterModeGenerator(seed);
+
+        assertArrayEquals("Same seed and stream should give the same bits",
+                read(generator.stream(3), 100), read(new CounterModeGenerator(seed).stream(3), 100));
+        assertFalse("Different streams should give different bits",
+                Arrays.equals(read(generator.stream(3), 100), read(generator.stream(4), 100)));
+        assertFalse("Different seeds should give different bits",
+                Arrays.equals(read(generator.stream(3), 100), read(new CounterModeGenerator(new SecureRandom()).stream(3), 100)));
+    }
+
+    @Test
+    public void testSeededSamplerIsDeterministic() {
+        //Spans several stripes, which are filled in parallel
+        long[] first = new long[100_000];
+        long[] second = new long[100_000];
+        new UniformSampler(new CounterModeGenerator(seed)).fill(first, BigInteger.valueOf(10_000));
+        new UniformSampler(new CounterModeGenerator(seed)).fill(second, BigInteger.valueOf(10_000));
+
+        assertArrayEquals("Sampler with the same seed should give the same values", first, second);
+
+        UniformSampler sampler = new UniformSampler(new CounterModeGenerator(seed));
+        sampler.fill(first, BigInteger.valueOf(10_000));
+        sampler.fill(second, BigInteger.valueOf(10_000));
+        assertFalse("Consecutive fills should use fresh streams", Arrays.equals(first, second));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSeedLength() {
+        new CounterModeGenerator(new byte[8]);
+    }
+}
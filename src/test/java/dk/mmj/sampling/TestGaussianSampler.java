@@ -0,0 +1,88 @@
+package dk.mmj.sampling;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.valueOf;
+import static org.junit.Assert.*;
+
+public class TestGaussianSampler {
+    private final UniformSampler uniform = new UniformSampler(new SecureRandom());
+
+    private static void assertMoments(double sigma, long[] samples) {
+        double sum = 0;
+        double squares = 0;
+        for (long sample : samples) {
+            sum += sample;
+            squares += (double) sample * sample;
+        }
+        double mean = sum / samples.length;
+        double deviation = Math.sqrt(squares / samples.length - mean * mean);
+
+        assertEquals("Mean should be zero, for sigma=" + sigma, 0, mean, sigma * 0.05);
+        assertEquals("Unexpected standard deviation, for sigma=" + sigma, sigma, deviation, sigma * 0.05);
+    }
+
+    @Test
+    public void testTableDistribution() {
+        for (double sigma : new double[]{3.2, 40}) {
+            long[] samples = new long[200_000];
+            new GaussianSampler(uniform, sigma).fill(samples);
+
+            assertMoments(sigma, samples);
+            for (long sample : samples) {
+                assertTrue("Sample " + sample + " is beyond the tail cut", Math.abs(sample) <= Math.ceil(13 * sigma));
+            }
+        }
+    }
+
+    @Test
+    public void testContinuousDistribution() {
+        double sigma = 100_000;
+        long[] samples = new long[200_000];
+        new GaussianSampler(uniform, sigma).fill(samples);
+
+        assertMoments(sigma, samples);
+    }
+
+    @Test
+    public void testNarrowDistribution() {
+        long[] samples = new long[10_000];
+        new GaussianSampler(uniform, 0).fill(samples);
+        for (long sample : samples) {
+            assertEquals("With sigma=0 every sample should be zero", 0, sample);
+        }
+    }
+
+    @Test
+    public void testValuesModulo() {
+        GaussianSampler sampler = new GaussianSampler(uniform, 3.2);
+        for (BigInteger q : new BigInteger[]{valueOf(10_000), ONE.shiftLeft(21), ONE.shiftLeft(63),
+                ONE.shiftLeft(64)}) {
+            long[] values = new long[2000];
+            sampler.fill(values, q);
+
+            boolean negative = false;
+            for (long value : values) {
+                BigInteger unsigned = value >= 0 ? valueOf(value) : valueOf(value).add(ONE.shiftLeft(64));
+                assertTrue("Value was not in [0, " + q + ")", unsigned.compareTo(q) < 0);
+                BigInteger centered = unsigned.compareTo(q.shiftRight(1)) > 0 ? unsigned.subtract(q) : unsigned;
+                assertTrue("Value " + centered + " was too far from zero", centered.abs().compareTo(valueOf(42)) <= 0);
+                negative |= centered.signum() < 0;
+            }
+            assertTrue("Negative samples should wrap around q=" + q, negative);
+        }
+
+        BigInteger big = ONE.shiftLeft(100);
+        BigInteger value = sampler.next(big);
+        assertTrue("Value should be close to 0 mod q", value.compareTo(valueOf(42)) <= 0 || big.subtract(value).compareTo(valueOf(42)) <= 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeDeviation() {
+        new GaussianSampler(uniform, -1);
+    }
+}
@@ -0,0 +1,115 @@
+package dk.mmj.sampling;
+
+import dk.mmj.matrix.Matrix;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.valueOf;
+import static org.junit.Assert.*;
+
+public class TestUniformSampler {
+    private final UniformSampler sampler = new UniformSampler(new SecureRandom());
+
+    @Test
+    public void testValuesBelowModulus() {
+        for (BigInteger q : new BigInteger[]{ONE, valueOf(5), valueOf(10_000), ONE.shiftLeft(21),
+                ONE.shiftLeft(61).subtract(ONE), ONE.shiftLeft(63).subtract(valueOf(25))}) {
+            long[] values = new long[2000];
+            sampler.fill(values, q);
+            for (long value : values) {
+                assertTrue("Value " + value + " was not in [0, " + q + ")",
+                        value >= 0 && valueOf(value).compareTo(q) < 0);
+            }
+        }
+    }
+
+    @Test
+    public void testEveryResidueSampled() {
+        for (BigInteger q : new BigInteger[]{valueOf(5), valueOf(8)}) {
+            long[] values = new long[1000];
+            sampler.fill(values, q);
+            boolean[] seen = new boolean[q.intValue()];
+            for (long value : values) {
+                seen[(int) value] = true;
+            }
+            for (int i = 0; i < seen.length; i++) {
+                assertTrue("Residue " + i + " was never sampled, for q=" + q, seen[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testFullWords() {
+        long[] values = new long[1000];
+        sampler.fill(values, ONE.shiftLeft(64));
+        boolean negative = false;
+        for (long value : values) {
+            negative |= value < 0;
+        }
+        assertTrue("Mod 2^64 the top bit should be random", negative);
+
+        sampler.fill(values, ONE.shiftLeft(63));
+        long or = 0;
+        for (long value : values) {
+            assertTrue("Value was not in [0, 2^63)", value >= 0);
+            or |= value;
+        }
+        assertEquals("Mod 2^63 every bit below the top should be random", Long.MAX_VALUE, or);
+
+        long[] bits = new long[16];
+        sampler.fillBits(bits);
+        or = 0;
+        for (long word : bits) {
+            or |= word;
+        }
+        assertEquals("Every bit position should be set at some point", -1L, or);
+    }
+
+    @Test
+    public void testBigModulus() {
+        BigInteger q = ONE.shiftLeft(100).subtract(valueOf(3));
+        for (int i = 0; i < 100; i++) {
+            BigInteger value = sampler.next(q);
+            assertTrue("Value " + value + " was not in [0, q)", value.signum() >= 0 && value.compareTo(q) < 0);
+        }
+    }
+
+    @Test
+    public void testSingleValuesShareStream() {
+        byte[] seed = CounterModeGenerator.newSeed(new SecureRandom());
+        UniformSampler many = new UniformSampler(new CounterModeGenerator(seed));
+        UniformSampler one = new UniformSampler(new CounterModeGenerator(seed));
+        BigInteger q = ONE.shiftLeft(100);
+        for (int i = 0; i < 100; i++) {
+            many.next(q);
+        }
+        one.next(q);
+
+        long[] afterMany = new long[10];
+        long[] afterOne = new long[10];
+        many.fillBits(afterMany);
+        one.fillBits(afterOne);
+        assertArrayEquals("Single values should all be drawn from a single reserved stream", afterOne, afterMany);
+    }
+
+    @Test
+    public void testMatrix() {
+        for (BigInteger q : new BigInteger[]{valueOf(10_000), ONE.shiftLeft(64), ONE.shiftLeft(70)}) {
+            Matrix matrix = new Matrix(7, 9, sampler, q);
+            for (int row = 0; row < matrix.getRows(); row++) {
+                for (int col = 0; col < matrix.getColumns(); col++) {
+                    BigInteger value = matrix.get(row, col);
+                    assertTrue("Entry was not in [0, " + q + ")", value.signum() >= 0 && value.compareTo(q) < 0);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testModulusTooLarge() {
+        sampler.fill(new long[1], ONE.shiftLeft(64).subtract(ONE));
+    }
+}